@@ -1,3 +1,5 @@
+import java.io.OutputStream
+
 plugins {
     id("java")
 }
@@ -9,6 +11,17 @@ repositories {
     mavenCentral()
 }
 
+//JMH benchmarks live in src/jmh/java and see the main classes
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation by configurations.getting
+val jmhAnnotationProcessor by configurations.getting
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
@@ -16,8 +29,159 @@ dependencies {
     //mockito
     testImplementation("org.mockito:mockito-core:5.3.1")
     testImplementation("org.mockito:mockito-junit-jupiter:5.3.1")
+    //jmh
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+//VectorCipher uses the incubating Vector API; without the module at runtime the scalar path is used
+val vectorModule = listOf("--add-modules", "jdk.incubator.vector")
+
+tasks.withType<JavaCompile>().configureEach {
+    options.compilerArgs.addAll(vectorModule)
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+    jvmArgs(vectorModule)
+}
+
+//runnable jar: java -jar build/libs/TopSecret-1.0-SNAPSHOT.jar 01
+tasks.jar {
+    manifest {
+        attributes("Main-Class" to "TopSecret")
+    }
+}
+
+//the JVM Gradle runs on; an AppCDS archive only works with the JVM that wrote it
+val javaExecutable = File(System.getProperty("java.home"), "bin/java").absolutePath
+val cdsArchive = layout.buildDirectory.file("libs/topsecret.jsa")
+
+//./gradlew appCds, then:
+//java -XX:SharedArchiveFile=build/libs/topsecret.jsa -jar build/libs/TopSecret-1.0-SNAPSHOT.jar 01
+//The archive holds the classes (parsed and verified) that a run of TopSecret.main deciphering a file
+//loads. It is written without --add-modules jdk.incubator.vector: with that option the JVM cannot use
+//the archived module graph, and one-shot runs of small files never reach the Vector API anyway
+tasks.register<Exec>("appCds") {
+    group = "build"
+    description = "Builds an AppCDS archive for the runnable jar, trained on a one-shot decipher run"
+    dependsOn(tasks.jar)
+    val jarFile = tasks.jar.get().archiveFile.get().asFile
+    val archive = cdsArchive.get().asFile
+    val workDir = layout.buildDirectory.dir("cds-work").get().asFile
+    inputs.file(jarFile)
+    outputs.file(archive)
+    workingDir = workDir
+    standardOutput = OutputStream.nullOutputStream()
+    doFirst {
+        //a key and a data file like the ones in ciphers/ and data/, so the run takes the usual path
+        val alphabet = (('a'..'z') + ('A'..'Z') + ('0'..'9')).joinToString("")
+        File(workDir, "ciphers").mkdirs()
+        File(workDir, "data").mkdirs()
+        File(workDir, "ciphers/key.txt").writeText(alphabet + "\n" + alphabet.substring(1) + alphabet[0] + "\n")
+        File(workDir, "data/training.txt").writeText("Uif rvjdl cspxo gpy kvnqt pwfs uif mbaz eph.\n".repeat(1000))
+        archive.delete()
+    }
+    commandLine(javaExecutable, "-XX:ArchiveClassesAtExit=" + archive.absolutePath, "-jar", jarFile.absolutePath, "01")
+}
+
+//./gradlew startupBenchmark -PstartupRuns=50
+tasks.register<JavaExec>("startupBenchmark") {
+    group = "benchmark"
+    description = "Times one-shot CLI runs to the first byte of output, with and without the AppCDS archive"
+    dependsOn("appCds")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("topsecret.bench.StartupBenchmark")
+    val workDir = layout.buildDirectory.dir("startup-work").get().asFile
+    workingDir = workDir
+    doFirst { workDir.mkdirs() }
+    args(javaExecutable, tasks.jar.get().archiveFile.get().asFile.absolutePath, cdsArchive.get().asFile.absolutePath,
+        project.findProperty("startupRuns") as String? ?: "20")
+}
+
+//GraalVM native-image, from GRAALVM_HOME, JAVA_HOME or the PATH; the native tasks are skipped without it
+val nativeImageTool = (listOfNotNull(System.getenv("GRAALVM_HOME"), System.getenv("JAVA_HOME"))
+        .map { File(it, "bin/native-image") } +
+        (System.getenv("PATH") ?: "").split(File.pathSeparator).filter { it.isNotEmpty() }.map { File(it, "native-image") })
+    .firstOrNull { it.canExecute() }
+val nativeBinary = layout.buildDirectory.file("native/topsecret")
+
+//./gradlew nativeImage, then: build/native/topsecret 01
+//A closed-world build of the runnable jar: no JIT warm-up and no class loading at startup, which suits
+//cron jobs that run the CLI many times a day. The reflection and resource config it needs is in
+//src/main/resources/META-INF/native-image. The Vector API is not included, the scalar loop is used
+tasks.register<Exec>("nativeImage") {
+    group = "build"
+    description = "Builds a native TopSecret binary with GraalVM native-image, if it is installed"
+    dependsOn(tasks.jar)
+    onlyIf("native-image is installed") { nativeImageTool != null }
+    val jarFile = tasks.jar.get().archiveFile.get().asFile
+    val binary = nativeBinary.get().asFile
+    inputs.file(jarFile)
+    outputs.file(binary)
+    doFirst { binary.parentFile.mkdirs() }
+    //serial GC and a small default heap keep the resident set of a one-shot run small
+    commandLine(nativeImageTool?.path ?: "native-image", "--gc=serial", "-R:MaxHeapSize=256m",
+        "-jar", jarFile.absolutePath, "-o", binary.absolutePath)
+}
+
+//runs the same commands through the native binary and the jar against data/ and ciphers/key.txt (copied
+//into build/native-smoke, with a sample file if there is no data/) and fails if the output differs
+tasks.register("nativeSmokeTest") {
+    group = "verification"
+    description = "Checks that the native binary prints the same as the jar"
+    dependsOn("nativeImage")
+    onlyIf("native-image is installed") { nativeImageTool != null }
+    val jarFile = tasks.jar.get().archiveFile.get().asFile
+    val binary = nativeBinary.get().asFile
+    val workDir = layout.buildDirectory.dir("native-smoke").get().asFile
+    val dataDir = file("data")
+    val keyFile = file("ciphers/key.txt")
+    doLast {
+        delete(workDir)
+        File(workDir, "ciphers").mkdirs()
+        keyFile.copyTo(File(workDir, "ciphers/key.txt"))
+        if (dataDir.isDirectory) {
+            dataDir.copyRecursively(File(workDir, "data"))
+        } else {
+            File(workDir, "data").mkdirs()
+            File(workDir, "data/sample.txt").writeText("Uif rvjdl cspxo gpy kvnqt pwfs uif mbaz eph.\n".repeat(100))
+        }
+
+        fun run(command: List<String>): String {
+            val process = ProcessBuilder(command).directory(workDir).redirectError(ProcessBuilder.Redirect.DISCARD).start()
+            val output = process.inputStream.readBytes().toString(Charsets.UTF_8)
+            if (process.waitFor() != 0) {
+                throw GradleException("Exit code " + process.exitValue() + " from " + command.joinToString(" "))
+            }
+            return output
+        }
+
+        val commands = listOf(listOf(), listOf("01"), listOf("01", "--lines", "1-3"), listOf("--all"),
+            listOf("--search", "the"), listOf("01", "--stats"))
+        for (args in commands) {
+            val native = run(listOf(binary.absolutePath) + args)
+            if (native.isEmpty() || native != run(listOf(javaExecutable, "-jar", jarFile.absolutePath) + args)) {
+                throw GradleException("Native output differs from the jar for: topsecret " + args.joinToString(" "))
+            }
+        }
+        //--recover needs the language model resource, its key is random so only check that it was written
+        run(listOf(binary.absolutePath, "--recover", "01", "ciphers/recovered.txt"))
+        if (!File(workDir, "ciphers/recovered.txt").isFile) {
+            throw GradleException("Native --recover wrote no key file")
+        }
+    }
+}
+
+//./gradlew jmh -PjmhArgs="Decipher -p size=1024"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks, pass JMH options with -PjmhArgs"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    //benchmarks create their own data/ and ciphers/ here
+    val workDir = layout.buildDirectory.dir("jmh-work").get().asFile
+    workingDir = workDir
+    doFirst { workDir.mkdirs() }
+    args((project.findProperty("jmhArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: listOf<String>())
+}
@@ -0,0 +1,88 @@
+package topsecret.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/*
+ * Generates keys and ciphertext for the benchmarks, and writes them into
+ * data/ and ciphers/ under the working directory (build/jmh-work when run
+ * through the jmh Gradle task), where FileHandler expects them.
+ */
+final class BenchData {
+    static final String KEY_PATH = "ciphers/bench-key.txt";
+
+    private BenchData() {
+    }
+
+    //the first keySize chars used by keys: printable ASCII first, then Cyrillic and CJK
+    static String keyAlphabet(int keySize) {
+        StringBuilder chars = new StringBuilder(keySize);
+        for (char c = '!'; c <= '~' && chars.length() < keySize; c++) {
+            chars.append(c);
+        }
+        for (char c = '\u0400'; c <= '\u04ff' && chars.length() < keySize; c++) {
+            chars.append(c);
+        }
+        for (char c = '\u4e00'; chars.length() < keySize; c++) {
+            chars.append(c);
+        }
+        return chars.toString();
+    }
+
+    //two line key shifting every char of the alphabet by one
+    static String keyContent(int keySize) {
+        String plain = keyAlphabet(keySize);
+        String cipher = plain.substring(1) + plain.charAt(0);
+        return plain + "\n" + cipher + "\n";
+    }
+
+    //roughly sizeInBytes of UTF-8 text, "ascii" uses only ASCII, "unicode" mixes in Cyrillic and CJK
+    static String text(long sizeInBytes, String mix) {
+        StringBuilder text = new StringBuilder((int) Math.min(sizeInBytes, Integer.MAX_VALUE - 8));
+        try {
+            generate(sizeInBytes, mix, text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    //the same text as text(), appended to out one char at a time so that a file of any size can be
+    //written without holding it in memory
+    private static void generate(long sizeInBytes, String mix, Appendable out) throws IOException {
+        String alphabet = mix.equals("unicode") ? keyAlphabet(94) + "\u0430\u0431\u0432\u4e2d\u6587" : keyAlphabet(94);
+        SplittableRandom random = new SplittableRandom(42);
+        long bytes = 0;
+        while (bytes < sizeInBytes) {
+            char c = random.nextInt(12) == 0 ? (random.nextInt(4) == 0 ? '\n' : ' ')
+                    : alphabet.charAt(random.nextInt(alphabet.length()));
+            out.append(c);
+            bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+    }
+
+    static void writeKey(int keySize) throws IOException {
+        write(Paths.get(KEY_PATH), keyContent(keySize));
+    }
+
+    //writes data/<name> and returns its file name
+    static String writeDataFile(String name, long sizeInBytes, String mix) throws IOException {
+        Path path = Paths.get("data", name);
+        Files.createDirectories(path.getParent());
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            generate(sizeInBytes, mix, out);
+        }
+        return name;
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+package topsecret.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+//in-memory deciphering, without any file I/O
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DecipherBenchmark {
+
+    //input size in UTF-8 bytes, 1 KB to 64 MB; 1 GB (-p size=1073741824) does not fit the default heap
+    @Param({"1024", "1048576", "67108864"})
+    public long size;
+
+    @Param({"26", "62", "512"})
+    public int keySize;
+
+    @Param({"ascii", "unicode"})
+    public String mix;
+
+    private String text;
+    private byte[] bytes;
+    private Object key;
+
+    @Setup
+    public void setUp() throws Throwable {
+        text = BenchData.text(size, mix);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        key = TopSecretApi.compileKey(BenchData.keyContent(keySize));
+        TopSecretApi.LOAD_KEY.invoke(BenchData.keyContent(keySize));
+    }
+
+    @Benchmark
+    public Object decipherString() throws Throwable {
+        return TopSecretApi.DECIPHER.invoke(key, text);
+    }
+
+    //the static single-key API kept for older callers
+    @Benchmark
+    public Object decipherStringLegacy() throws Throwable {
+        return TopSecretApi.DECIPHER_CURRENT.invoke(text);
+    }
+
+    @Benchmark
+    public long decipherStream() throws Throwable {
+        return (long) TopSecretApi.DECIPHER_STREAM.invoke(key,
+                Channels.newChannel(new ByteArrayInputStream(bytes)), DiscardChannel.INSTANCE,
+                StandardCharsets.UTF_8);
+    }
+
+    //a sink that throws everything away, so only the deciphering is measured
+    static final class DiscardChannel implements WritableByteChannel {
+        static final DiscardChannel INSTANCE = new DiscardChannel();
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
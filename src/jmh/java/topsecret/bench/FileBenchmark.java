@@ -0,0 +1,93 @@
+package topsecret.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+//reading files from data/ and the ProgramControl pipeline end to end
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FileBenchmark {
+
+    //file size in UTF-8 bytes, 1 KB to 64 MB; 1 GB (-p size=1073741824) does not fit the default heap
+    @Param({"1024", "1048576", "67108864"})
+    public long size;
+
+    @Param({"26", "62", "512"})
+    public int keySize;
+
+    @Param({"ascii", "unicode"})
+    public String mix;
+
+    //the size of a --serve process's decrypt cache
+    private static final long SERVER_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private String fileName;
+    //no decrypt cache, like the one-shot CLI
+    private Object control;
+    //a server's decrypt cache, which files up to 16 MB are served from after the first call
+    private Object cachedControl;
+
+    @Setup
+    public void setUp() throws Throwable {
+        //the only file in data/, so it is always file number 01
+        fileName = BenchData.writeDataFile("bench.txt", size, mix);
+        BenchData.writeKey(keySize);
+        control = TopSecretApi.newProgramControl(0);
+        cachedControl = TopSecretApi.newProgramControl(SERVER_CACHE_BYTES);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(Paths.get("data", fileName));
+    }
+
+    @Benchmark
+    public Object getFile() throws Throwable {
+        return TopSecretApi.GET_FILE.invoke(fileName);
+    }
+
+    //list, read and return the ciphertext as a String
+    @Benchmark
+    public Object getFileContent() throws Throwable {
+        return TopSecretApi.GET_FILE_CONTENT.invoke(control, 1, BenchData.KEY_PATH);
+    }
+
+    //the old UserInterface.displayFile path: whole file as a String, then key, then decipher
+    @Benchmark
+    public Object getFileContentAndDecipher() throws Throwable {
+        String content = (String) TopSecretApi.GET_FILE_CONTENT.invoke(control, 1, BenchData.KEY_PATH);
+        Object key = TopSecretApi.compileKey((String) TopSecretApi.READ_KEY_FILE.invoke(BenchData.KEY_PATH));
+        return TopSecretApi.DECIPHER.invoke(key, content);
+    }
+
+    //the streaming path the CLI uses now: read, decipher and write on every call
+    @Benchmark
+    public void writeFileContent() throws Throwable {
+        TopSecretApi.WRITE_FILE_CONTENT.invoke(control, 1, BenchData.KEY_PATH, DecipherBenchmark.DiscardChannel.INSTANCE);
+    }
+
+    //the same call on a --serve process: cache hits for files up to 16 MB, the streaming path above them
+    @Benchmark
+    public void writeFileContentServerCache() throws Throwable {
+        TopSecretApi.WRITE_FILE_CONTENT.invoke(cachedControl, 1, BenchData.KEY_PATH,
+                DecipherBenchmark.DiscardChannel.INSTANCE);
+    }
+}
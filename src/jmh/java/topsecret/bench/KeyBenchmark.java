@@ -0,0 +1,57 @@
+package topsecret.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//reading and compiling key files of different sizes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KeyBenchmark {
+
+    //26 and 62 stay ASCII, 512 spills into Cyrillic and CJK
+    @Param({"26", "62", "512"})
+    public int keySize;
+
+    private String keyContent;
+
+    @Setup
+    public void setUp() throws Exception {
+        keyContent = BenchData.keyContent(keySize);
+        BenchData.writeKey(keySize);
+    }
+
+    @Benchmark
+    public Object compileKey() throws Throwable {
+        return TopSecretApi.COMPILE_KEY.invoke(keyContent);
+    }
+
+    @Benchmark
+    public boolean loadKey() throws Throwable {
+        return (boolean) TopSecretApi.LOAD_KEY.invoke(keyContent);
+    }
+
+    @Benchmark
+    public Object readKeyFile() throws Throwable {
+        return TopSecretApi.READ_KEY_FILE.invoke(BenchData.KEY_PATH);
+    }
+
+    @Benchmark
+    public Object readAndCompileKey() throws Throwable {
+        return TopSecretApi.COMPILE_KEY.invoke((String) TopSecretApi.READ_KEY_FILE.invoke(BenchData.KEY_PATH));
+    }
+}
@@ -0,0 +1,101 @@
+package topsecret.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Startup cost of one-shot CLI runs, which JMH cannot measure: every run
+ * is a new JVM. Each configuration runs "java ... -jar TopSecret.jar 01"
+ * and "... TopSecret.jar" (the list command) a number of times and reports
+ * the time from starting the process to the first byte on its stdout
+ * (TTFB) and to its exit.
+ *
+ * Arguments: java executable, jar, AppCDS archive, runs per command.
+ * The data/ and ciphers/ files go into the working directory
+ * (build/startup-work when run through the startupBenchmark Gradle task).
+ */
+public final class StartupBenchmark {
+    //a small file, so the numbers are mostly JVM startup and class loading
+    private static final long FILE_SIZE = 4 * 1024;
+    //runs not counted, so the jar and the archive are in the page cache
+    private static final int WARMUP_RUNS = 3;
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: StartupBenchmark <java> <jar> <archive> <runs>");
+            System.exit(2);
+        }
+        String java = args[0];
+        String jar = args[1];
+        String archive = args[2];
+        int runs = Integer.parseInt(args[3]);
+
+        BenchData.writeKey(62);
+        BenchData.writeDataFile("startup.txt", FILE_SIZE, "ascii");
+
+        List<String> plain = List.of(java, "-jar", jar);
+        List<String> cds = List.of(java, "-XX:SharedArchiveFile=" + archive, "-jar", jar);
+        List<String> cdsC1 = List.of(java, "-XX:SharedArchiveFile=" + archive, "-XX:TieredStopAtLevel=1", "-jar", jar);
+
+        System.out.printf("%-24s %-8s %10s %10s %10s %10s%n", "config", "command", "ttfb p50", "ttfb p90",
+                "exit p50", "exit p90");
+        for (String[] command : new String[][] {{"01", BenchData.KEY_PATH}, {}}) {
+            report("jar", plain, command, runs);
+            report("jar + AppCDS", cds, command, runs);
+            report("jar + AppCDS + C1 only", cdsC1, command, runs);
+        }
+    }
+
+    private static void report(String config, List<String> jvm, String[] command, int runs) throws IOException,
+            InterruptedException {
+        List<String> line = new ArrayList<>(jvm);
+        line.addAll(Arrays.asList(command));
+
+        long[] firstByte = new long[runs];
+        long[] exit = new long[runs];
+        for (int i = -WARMUP_RUNS; i < runs; i++) {
+            long[] times = run(line);
+            if (i >= 0) {
+                firstByte[i] = times[0];
+                exit[i] = times[1];
+            }
+        }
+
+        Arrays.sort(firstByte);
+        Arrays.sort(exit);
+        System.out.printf("%-24s %-8s %8.1fms %8.1fms %8.1fms %8.1fms%n", config,
+                command.length == 0 ? "list" : command[0], millis(firstByte, 50), millis(firstByte, 90),
+                millis(exit, 50), millis(exit, 90));
+    }
+
+    //{nanos to the first byte of stdout, nanos to exit}
+    private static long[] run(List<String> line) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(line).redirectError(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        long firstByte;
+        try (InputStream out = process.getInputStream()) {
+            if (out.read() < 0) {
+                throw new IOException("No output from " + String.join(" ", line));
+            }
+            firstByte = System.nanoTime() - start;
+            out.transferTo(OutputStream.nullOutputStream());
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("Exit code " + process.exitValue() + " from " + String.join(" ", line));
+        }
+        return new long[] {firstByte, System.nanoTime() - start};
+    }
+
+    private static double millis(long[] sorted, int percentile) {
+        int index = Math.min(sorted.length - 1, sorted.length * percentile / 100);
+        return sorted[index] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,97 @@
+package topsecret.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/*
+ * The CLI classes live in the default package, which cannot be imported
+ * from a named package (and JMH refuses to generate code for benchmarks in
+ * the default package). These handles are static final, so the JIT treats
+ * them as constants and calling through them costs the same as a direct
+ * call once warmed up.
+ */
+final class TopSecretApi {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final Class<?> COMPILED_KEY = load("CompiledKey");
+
+    //CompiledKey compileKey(String)
+    static final MethodHandle COMPILE_KEY = staticMethod("CipherDecrypter", "compileKey",
+            MethodType.methodType(COMPILED_KEY, String.class));
+    //boolean loadKey(String)
+    static final MethodHandle LOAD_KEY = staticMethod("CipherDecrypter", "loadKey",
+            MethodType.methodType(boolean.class, String.class));
+    //String decipher(String)
+    static final MethodHandle DECIPHER_CURRENT = staticMethod("CipherDecrypter", "decipher",
+            MethodType.methodType(String.class, String.class));
+    //String decipher(CompiledKey, String)
+    static final MethodHandle DECIPHER = staticMethod("CipherDecrypter", "decipher",
+            MethodType.methodType(String.class, COMPILED_KEY, String.class));
+    //long decipher(CompiledKey, ReadableByteChannel, WritableByteChannel, Charset)
+    static final MethodHandle DECIPHER_STREAM = staticMethod("CipherStream", "decipher",
+            MethodType.methodType(long.class, COMPILED_KEY, ReadableByteChannel.class,
+                    WritableByteChannel.class, Charset.class));
+    //String readKeyFile(String)
+    static final MethodHandle READ_KEY_FILE = staticMethod("FileHandler", "readKeyFile",
+            MethodType.methodType(String.class, String.class));
+    //String getFile(String)
+    static final MethodHandle GET_FILE = staticMethod("FileHandler", "getFile",
+            MethodType.methodType(String.class, String.class));
+    //new ProgramControl(long cacheBytes)
+    static final MethodHandle NEW_PROGRAM_CONTROL = constructor("ProgramControl",
+            MethodType.methodType(void.class, long.class));
+    //String getFileContent(int, String)
+    static final MethodHandle GET_FILE_CONTENT = virtualMethod("ProgramControl", "getFileContent",
+            MethodType.methodType(String.class, int.class, String.class));
+    //void writeFileContent(int, String, WritableByteChannel)
+    static final MethodHandle WRITE_FILE_CONTENT = virtualMethod("ProgramControl", "writeFileContent",
+            MethodType.methodType(void.class, int.class, String.class, WritableByteChannel.class));
+
+    private TopSecretApi() {
+    }
+
+    static Object compileKey(String keyContent) throws Throwable {
+        return COMPILE_KEY.invoke(keyContent);
+    }
+
+    //0 is what the one-shot CLI uses, a --serve process has ProgramControl.DEFAULT_CACHE_BYTES
+    static Object newProgramControl(long cacheBytes) throws Throwable {
+        return NEW_PROGRAM_CONTROL.invoke(cacheBytes);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(String owner, String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(load(owner), name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle virtualMethod(String owner, String name, MethodType type) {
+        try {
+            return LOOKUP.findVirtual(load(owner), name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner, MethodType type) {
+        try {
+            return LOOKUP.findConstructor(load(owner), type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
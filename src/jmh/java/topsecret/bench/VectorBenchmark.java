@@ -0,0 +1,75 @@
+package topsecret.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+//SIMD vs scalar byte translation for an ASCII key, against the String decipher loop
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VectorBenchmark {
+
+    //void CompiledKey.translate(byte[], int, int)
+    private static final MethodHandle TRANSLATE_BYTES = translateBytes();
+
+    @Param({"65536", "1048576", "67108864"})
+    public int size;
+
+    private byte[] bytes;
+    private String text;
+    private Object key;
+
+    @Setup
+    public void setUp() throws Throwable {
+        text = BenchData.text(size, "ascii");
+        bytes = text.getBytes(StandardCharsets.US_ASCII);
+        key = TopSecretApi.compileKey(BenchData.keyContent(62));
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public byte[] vectorBytes() throws Throwable {
+        TRANSLATE_BYTES.invoke(key, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Dtopsecret.vector=false"})
+    public byte[] scalarBytes() throws Throwable {
+        TRANSLATE_BYTES.invoke(key, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    //the String based decipher for the same input, for reference
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public Object decipherString() throws Throwable {
+        return TopSecretApi.DECIPHER.invoke(key, text);
+    }
+
+    private static MethodHandle translateBytes() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(TopSecretApi.COMPILED_KEY, "translate",
+                    MethodType.methodType(void.class, byte[].class, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
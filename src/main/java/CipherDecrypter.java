@@ -1,8 +1,7 @@
 
-import java.util.HashMap;
-
 public class CipherDecrypter {
-    private static final HashMap<Character, Character> keyMap = new HashMap<>();
+    //key used by the static loadKey/decipher(String) pair, replaced on every successful loadKey
+    private static volatile CompiledKey currentKey = CompiledKey.IDENTITY;
 
     private static boolean validateKey(String plainLine, String cipherLine) {
 
@@ -14,45 +13,66 @@ public class CipherDecrypter {
         }
         return true;
     }
-    public static boolean loadKey(String keyContent) {
+
+    //returns the compiled cipher -> plain table, or null if the key content is invalid
+    public static CompiledKey compileKey(String keyContent) {
+        String[] lines = keyLines(keyContent);
+        if (lines == null) {
+            return null;
+        }
+        return CompiledKey.of(lines[1], lines[0]);
+    }
+
+    //the inverse of compileKey: plain -> cipher, for producing the files in data/;
+    //if the plain line repeats a char, its last cipher char is used
+    public static CompiledKey compileEncryptKey(String keyContent) {
+        String[] lines = keyLines(keyContent);
+        if (lines == null) {
+            return null;
+        }
+        return CompiledKey.of(lines[0], lines[1]);
+    }
+
+    //plain and cipher line of a key file, null if the key content is invalid
+    private static String[] keyLines(String keyContent) {
         if (keyContent == null || keyContent.isEmpty()) {
-            return false;
+            return null;
         }
 
-        String[] lines = keyContent.split("\n");
+        //key files written on Windows end their lines with \r\n
+        String[] lines = keyContent.split("\r?\n");
 
         if (lines.length < 2) {
-            return false;
+            return null;
         }
 
         String plainLine = lines[0];
         String cipherLine = lines[1];
 
         if (!validateKey(plainLine, cipherLine)) {
-            return false;
+            return null;
         }
 
-        int cipherLength = plainLine.length();
-
-        for (int i = 0; i < cipherLength; i++) {
+        return new String[] {plainLine, cipherLine};
+    }
 
-            char plain = plainLine.charAt(i);
-            char cipher = cipherLine.charAt(i);
-            keyMap.put(cipher, plain);
+    public static boolean loadKey(String keyContent) {
+        CompiledKey key = compileKey(keyContent);
+        if (key == null) {
+            return false;
         }
+        currentKey = key;
         return true;
     }
-    public static String decipher(String encryptedString) {
 
-        StringBuilder result = new StringBuilder();
+    public static String decipher(String encryptedString) {
+        return decipher(currentKey, encryptedString);
+    }
 
-        for (int i =0; i < encryptedString.length(); i++) {
+    public static String decipher(CompiledKey key, String encryptedString) {
 
-            char cipher = encryptedString.charAt(i);
-            char plain = keyMap.getOrDefault(cipher,cipher);
-            result.append(plain);
-        }
-        return result.toString();
+        char[] result = encryptedString.toCharArray();
+        ParallelCipher.DEFAULT.translate(key, result, 0, result.length);
+        return new String(result);
     }
 }
-
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Read -> decipher -> write as three overlapping stages, for inputs where
+ * reading is slow (network filesystems): while one chunk is being read the
+ * previous one is deciphered and the one before that written out.
+ *
+ * The stages hand chunks over through bounded queues of `depth` chunks,
+ * so a slow writer stalls the reader instead of letting memory grow, and
+ * the chunk buffers are recycled through a free list. Only keys that can
+ * be applied byte by byte are pipelined.
+ */
+public class CipherPipeline {
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    static final int DEFAULT_DEPTH = 4;
+
+    //marks the end of the input in the queues
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    //reader and decipher stages, daemon threads so a stuck read never keeps the JVM alive
+    private static final ExecutorService STAGES = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "cipher-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int chunkSize;
+    private final int depth;
+
+    public CipherPipeline(int chunkSize, int depth) {
+        if (chunkSize < 1 || depth < 1) {
+            throw new IllegalArgumentException("Chunk size and depth must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        this.depth = depth;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    //returns the number of bytes written to out; the key must be usable on bytes
+    public long run(CompiledKey key, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        //enough buffers for both queues to be full while one chunk is in each stage
+        BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(depth * 2 + 3);
+        for (int i = 0; i < depth * 2 + 3; i++) {
+            free.add(ByteBuffer.allocate(chunkSize));
+        }
+        BlockingQueue<ByteBuffer> read = new ArrayBlockingQueue<>(depth);
+        BlockingQueue<ByteBuffer> deciphered = new ArrayBlockingQueue<>(depth);
+
+        ReadableByteChannel timedIn = Metrics.timed(in);
+        Future<?> reader = STAGES.submit(() -> {
+            readStage(timedIn, free, read);
+            return null;
+        });
+        Future<?> decipherer = STAGES.submit(() -> {
+            decipherStage(key, read, deciphered);
+            return null;
+        });
+
+        long written = 0;
+        try {
+            while (true) {
+                ByteBuffer chunk = deciphered.take();
+                if (chunk == END) {
+                    break;
+                }
+                while (chunk.hasRemaining()) {
+                    written += out.write(chunk);
+                }
+                chunk.clear();
+                free.put(chunk);
+            }
+            //the decipher stage only ends after the reader did, unless it failed itself,
+            //so neither get() can block; a read error that ended the input early surfaces here
+            decipherer.get();
+            reader.get();
+            return written;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deciphering", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            reader.cancel(true);
+            decipherer.cancel(true);
+        }
+    }
+
+    //fills whole chunks where the channel allows it, then passes them on
+    private static void readStage(ReadableByteChannel in, BlockingQueue<ByteBuffer> free,
+                                  BlockingQueue<ByteBuffer> read) throws Exception {
+        try {
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                ByteBuffer chunk = free.take();
+                while (chunk.hasRemaining()) {
+                    if (in.read(chunk) == -1) {
+                        endOfInput = true;
+                        break;
+                    }
+                }
+                chunk.flip();
+                if (chunk.hasRemaining()) {
+                    read.put(chunk);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //let the later stages finish, the writer then reports the error
+            read.put(END);
+            throw e;
+        }
+        read.put(END);
+    }
+
+    private static void decipherStage(CompiledKey key, BlockingQueue<ByteBuffer> read,
+                                      BlockingQueue<ByteBuffer> deciphered) throws Exception {
+        ParallelCipher parallel = ParallelCipher.DEFAULT;
+        while (true) {
+            ByteBuffer chunk = read.take();
+            if (chunk == END) {
+                deciphered.put(END);
+                return;
+            }
+            try {
+                long start = Metrics.start();
+                parallel.translate(key, chunk.array(), chunk.arrayOffset() + chunk.position(),
+                        chunk.arrayOffset() + chunk.limit());
+                Metrics.record(Metrics.Stage.DECIPHER, start, chunk.remaining());
+            } catch (RuntimeException e) {
+                deciphered.put(END);
+                throw e;
+            }
+            deciphered.put(chunk);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Finds a plain text query in an enciphered file without writing the
+ * deciphered file anywhere.
+ *
+ * With a one to one key the query is encrypted once and the cipher text is
+ * searched as it is read, so only the few bytes around a match are ever
+ * deciphered. Keys that map two chars to the same cipher char (or that
+ * need the charset decoder) fall back to deciphering the file as it is
+ * read and searching the plain text. Either way the search itself is Boyer-Moore-Horspool over
+ * bytes, reading the file through a fixed size buffer.
+ */
+public class CipherSearch {
+    static final int BUFFER_SIZE = 1024 * 1024;
+    //bytes of text shown before and after a match, cut at line ends
+    static final int CONTEXT = 40;
+    //longest query, keeps a match and its context well inside the buffer
+    static final int MAX_QUERY_LENGTH = 4096;
+
+    //every non-overlapping match of query in the file, in file order
+    public static List<SearchMatch> search(CompiledKey key, String query, ReadableByteChannel in, Charset charset,
+                                           int fileNumber, String fileName) throws IOException {
+        byte[] plainQuery = query.getBytes(charset);
+        if (plainQuery.length == 0 || plainQuery.length > MAX_QUERY_LENGTH) {
+            throw new IllegalArgumentException("query must be 1 to " + MAX_QUERY_LENGTH + " bytes long");
+        }
+
+        //the file is deciphered as it is read, so the buffer holds plain text
+        if (!CipherStream.canTranslateBytes(key, charset)) {
+            ReadableByteChannel plainIn = CipherStream.decipheringChannel(key, in, charset);
+            return scan(CompiledKey.IDENTITY, plainQuery, false, plainIn, charset, fileNumber, fileName);
+        }
+
+        byte[] cipherQuery = key.uniqueSource(plainQuery);
+        if (cipherQuery != null) {
+            return scan(key, cipherQuery, false, in, charset, fileNumber, fileName);
+        }
+        return scan(key, plainQuery, true, in, charset, fileNumber, fileName);
+    }
+
+    //searches in for needle; with decipherFirst the buffer is deciphered before it is searched,
+    //otherwise it is searched as cipher text and only the snippets are deciphered
+    private static List<SearchMatch> scan(CompiledKey key, byte[] needle, boolean decipherFirst, ReadableByteChannel in,
+                                          Charset charset, int fileNumber, String fileName) throws IOException {
+        List<SearchMatch> matches = new ArrayList<>();
+        int[] shift = shiftTable(needle);
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(buf);
+        //file offset of buf[0]
+        long base = 0;
+        int filled = 0;
+        int searchFrom = 0;
+        boolean eof = false;
+
+        while (true) {
+            buffer.limit(buf.length).position(filled);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            if (decipherFirst) {
+                key.translate(buf, filled, buffer.position());
+            }
+            filled = buffer.position();
+
+            //where the next pass has to start searching again
+            int next = searchFrom;
+            while (true) {
+                int found = indexOf(buf, next, filled, needle, shift);
+                if (found < 0) {
+                    next = Math.max(next, filled - needle.length + 1);
+                    break;
+                }
+                //wait for the rest of the snippet to be read
+                if (!eof && found + needle.length + CONTEXT > filled) {
+                    next = found;
+                    break;
+                }
+                String snippet = snippet(key, decipherFirst, buf, found, found + needle.length, filled, charset);
+                matches.add(new SearchMatch(fileNumber, fileName, base + found, snippet));
+                next = found + needle.length;
+            }
+
+            if (eof) {
+                return matches;
+            }
+
+            //keep the unsearched tail plus the context before it
+            int keepFrom = Math.max(0, next - CONTEXT);
+            System.arraycopy(buf, keepFrom, buf, 0, filled - keepFrom);
+            base += keepFrom;
+            filled -= keepFrom;
+            searchFrom = next - keepFrom;
+        }
+    }
+
+    //the deciphered text around buf[from, to), at most CONTEXT bytes each side and not past a line end
+    private static String snippet(CompiledKey key, boolean deciphered, byte[] buf, int from, int to, int filled,
+                                  Charset charset) {
+        int start = Math.max(0, from - CONTEXT);
+        int end = Math.min(filled, to + CONTEXT);
+        byte[] text = Arrays.copyOfRange(buf, start, end);
+        if (!deciphered) {
+            key.translate(text, 0, text.length);
+        }
+
+        int first = from - start;
+        while (first > 0 && text[first - 1] != '\n' && text[first - 1] != '\r') {
+            first--;
+        }
+        int last = to - start;
+        while (last < text.length && text[last] != '\n' && text[last] != '\r') {
+            last++;
+        }
+        return new String(text, first, last - first, charset);
+    }
+
+    //Horspool's bad character table: how far the window can move when its last byte is b
+    static int[] shiftTable(byte[] needle) {
+        int[] shift = new int[256];
+        Arrays.fill(shift, needle.length);
+        for (int i = 0; i < needle.length - 1; i++) {
+            shift[needle[i] & 0xFF] = needle.length - 1 - i;
+        }
+        return shift;
+    }
+
+    //first index of needle in haystack[from, to), -1 if there is none
+    static int indexOf(byte[] haystack, int from, int to, byte[] needle, int[] shift) {
+        int last = needle.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (haystack[i + j] == needle[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += shift[haystack[i + last] & 0xFF];
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Deciphers a channel into another channel through fixed size buffers,
+ * so memory use does not depend on the size of the input.
+ *
+ * Keys that can be applied byte by byte skip the decoder/encoder pair, and
+ * large files opened as a FileChannel are read through a memory map
+ * instead of read() calls.
+ */
+public class CipherStream {
+    static final int BUFFER_SIZE = 64 * 1024;
+    //files at least this big are memory mapped when the key allows byte translation
+    static final long MAPPED_THRESHOLD = 1024 * 1024;
+    //how much of the file is mapped at a time, keeps address space use bounded
+    static final long MAPPED_WINDOW = 64L * 1024 * 1024;
+    //block size used for mapped files when they are translated in parallel
+    static final int PARALLEL_BLOCK_SIZE = 8 * 1024 * 1024;
+
+    //returns the number of bytes written to out
+    public static long decipher(CompiledKey key, ReadableByteChannel in, WritableByteChannel out,
+                                Charset charset) throws IOException {
+        if (!canTranslateBytes(key, charset)) {
+            return translateChars(key, Metrics.timed(in), out, charset);
+        }
+        if (in instanceof FileChannel && ((FileChannel) in).size() >= MAPPED_THRESHOLD) {
+            return decipherMapped(key, (FileChannel) in, out);
+        }
+        return translateBytes(key, Metrics.timed(in), out);
+    }
+
+    //true when text in this charset can be deciphered without decoding it
+    static boolean canTranslateBytes(CompiledKey key, Charset charset) {
+        if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            return key.isSingleByte();
+        }
+        return key.isAscii() && (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII));
+    }
+
+    //maps the rest of the file window by window and deciphers it without going through read()
+    static long decipherMapped(CompiledKey key, FileChannel in, WritableByteChannel out) throws IOException {
+        ParallelCipher parallel = ParallelCipher.DEFAULT;
+        //big enough blocks for the parallel engine to split up, if there is more than one core
+        int blockSize = parallel.isParallel() ? PARALLEL_BLOCK_SIZE : BUFFER_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(blockSize, in.size()));
+        byte[] array = buffer.array();
+        long position = in.position();
+        long size = in.size();
+        long written = 0;
+
+        while (position < size) {
+            long length = Math.min(MAPPED_WINDOW, size - position);
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            while (mapped.hasRemaining()) {
+                int chunk = Math.min(array.length, mapped.remaining());
+                //page faults on the mapping happen here, so this is the read
+                long start = Metrics.start();
+                mapped.get(array, 0, chunk);
+                Metrics.record(Metrics.Stage.READ, start, chunk);
+
+                start = Metrics.start();
+                parallel.translate(key, array, 0, chunk);
+                Metrics.record(Metrics.Stage.DECIPHER, start, chunk);
+                buffer.limit(chunk);
+                written += writeFully(buffer, out);
+                buffer.clear();
+            }
+            position += length;
+        }
+        in.position(position);
+        return written;
+    }
+
+    private static long translateBytes(CompiledKey key, ReadableByteChannel in, WritableByteChannel out)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] array = buffer.array();
+        long written = 0;
+
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            long start = Metrics.start();
+            key.translate(array, 0, buffer.limit());
+            Metrics.record(Metrics.Stage.DECIPHER, start, buffer.limit());
+            written += writeFully(buffer, out);
+            buffer.clear();
+        }
+        return written;
+    }
+
+    private static long translateChars(CompiledKey key, ReadableByteChannel in, WritableByteChannel out,
+                                       Charset charset) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer output = ByteBuffer.allocate((int) (BUFFER_SIZE * encoder.maxBytesPerChar()) + 16);
+        long written = 0;
+        boolean endOfInput = false;
+
+        while (!endOfInput) {
+            endOfInput = in.read(input) == -1;
+            input.flip();
+
+            CoderResult result;
+            do {
+                //chars before start were left over by the encoder and are already translated
+                int start = chars.position();
+                result = decoder.decode(input, chars, endOfInput);
+                if (endOfInput && result.isUnderflow()) {
+                    decoder.flush(chars);
+                }
+                long started = Metrics.start();
+                key.translate(chars.array(), start, chars.position());
+                Metrics.record(Metrics.Stage.DECIPHER, started, chars.position() - start);
+                written += encode(encoder, chars, output, out, endOfInput && result.isUnderflow());
+            } while (result.isOverflow());
+
+            input.compact();
+        }
+        return written;
+    }
+
+    //in, read back deciphered: for keys that need the decoder, the same steps as translateChars run
+    //as the caller reads instead of pushing the whole input into another channel
+    static ReadableByteChannel decipheringChannel(CompiledKey key, ReadableByteChannel in, Charset charset) {
+        return new CharTranslatingChannel(key, Metrics.timed(in), charset);
+    }
+
+    //encodes and writes out everything in chars that the encoder can take
+    private static long encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer output,
+                               WritableByteChannel out, boolean last) throws IOException {
+        chars.flip();
+
+        long written = 0;
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, output, last);
+            if (last && result.isUnderflow()) {
+                encoder.flush(output);
+            }
+            output.flip();
+            written += writeFully(output, out);
+            output.clear();
+        } while (result.isOverflow());
+
+        chars.compact();
+        return written;
+    }
+
+    private static long writeFully(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer);
+        }
+        return written;
+    }
+
+    private static final class CharTranslatingChannel implements ReadableByteChannel {
+        private final CompiledKey key;
+        private final ReadableByteChannel in;
+        private final CharsetDecoder decoder;
+        private final CharsetEncoder encoder;
+        private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        //encoded bytes not handed out yet, kept ready for reading
+        private final ByteBuffer output;
+        private boolean endOfInput = false;
+        private boolean decoded = false;
+        private boolean finished = false;
+
+        CharTranslatingChannel(CompiledKey key, ReadableByteChannel in, Charset charset) {
+            this.key = key;
+            this.in = in;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            //room for a whole char buffer, so encoding never overflows
+            this.output = ByteBuffer.allocate((int) (BUFFER_SIZE * encoder.maxBytesPerChar()) + 16);
+            output.limit(0);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            while (!output.hasRemaining()) {
+                if (finished) {
+                    return -1;
+                }
+                fill();
+            }
+            int count = Math.min(dst.remaining(), output.remaining());
+            ByteBuffer part = output.duplicate();
+            part.limit(output.position() + count);
+            dst.put(part);
+            output.position(output.position() + count);
+            return count;
+        }
+
+        //decodes, translates and encodes the next piece of input into output
+        private void fill() throws IOException {
+            output.clear();
+            if (!decoded) {
+                if (!endOfInput) {
+                    endOfInput = in.read(input) == -1;
+                }
+                input.flip();
+                //chars before start were left over by the encoder and are already translated
+                int start = chars.position();
+                CoderResult result = decoder.decode(input, chars, endOfInput);
+                if (endOfInput && result.isUnderflow()) {
+                    decoder.flush(chars);
+                    decoded = true;
+                }
+                long started = Metrics.start();
+                key.translate(chars.array(), start, chars.position());
+                Metrics.record(Metrics.Stage.DECIPHER, started, chars.position() - start);
+                input.compact();
+            }
+
+            chars.flip();
+            CoderResult result = encoder.encode(chars, output, decoded);
+            if (decoded && result.isUnderflow()) {
+                encoder.flush(output);
+                finished = true;
+            }
+            chars.compact();
+            output.flip();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return in.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
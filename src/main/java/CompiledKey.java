@@ -0,0 +1,218 @@
+import java.util.Arrays;
+
+/*
+ * An immutable substitution table built from a key file.
+ *
+ * Chars below 256 are looked up in a dense table, anything else goes
+ * through sorted arrays. Nothing here is modified after construction, so
+ * one instance can be shared by any number of threads.
+ */
+public final class CompiledKey {
+    static final int DENSE_SIZE = 256;
+
+    static final CompiledKey IDENTITY = new CompiledKey(identityTable(), new char[0], new char[0]);
+
+    private final char[] dense;
+    //sorted source chars and the chars they translate to at the same index
+    private final char[] sparseFrom;
+    private final char[] sparseTo;
+    //byte -> byte form of the key, only set when every change stays inside latin-1
+    private final byte[] byteTable;
+    private final boolean ascii;
+
+    private CompiledKey(char[] dense, char[] sparseFrom, char[] sparseTo) {
+        this.dense = dense;
+        this.sparseFrom = sparseFrom;
+        this.sparseTo = sparseTo;
+        this.byteTable = buildByteTable(dense, sparseFrom, sparseTo);
+        this.ascii = byteTable != null && onlyChangesAscii(dense);
+    }
+
+    //builds a key that turns from.charAt(i) into to.charAt(i), later pairs win
+    static CompiledKey of(String from, String to) {
+        char[] dense = identityTable();
+        char[] keys = new char[0];
+        char[] values = new char[0];
+
+        for (int i = 0; i < from.length(); i++) {
+
+            char source = from.charAt(i);
+            char target = to.charAt(i);
+
+            if (source < DENSE_SIZE) {
+                dense[source] = target;
+                continue;
+            }
+
+            int index = Arrays.binarySearch(keys, source);
+            if (index >= 0) {
+                values[index] = target;
+            } else {
+                int insertAt = -index - 1;
+                keys = insert(keys, insertAt, source);
+                values = insert(values, insertAt, target);
+            }
+        }
+        return new CompiledKey(dense, keys, values);
+    }
+
+    public char translate(char c) {
+        if (c < DENSE_SIZE) {
+            return dense[c];
+        }
+        if (sparseFrom.length == 0) {
+            return c;
+        }
+        int index = Arrays.binarySearch(sparseFrom, c);
+        return index >= 0 ? sparseTo[index] : c;
+    }
+
+    //translates buf[from, to) in place, chars not in the key are left as they are
+    public void translate(char[] buf, int from, int to) {
+        char[] table = dense;
+        boolean noSparse = sparseFrom.length == 0;
+
+        for (int i = from; i < to; i++) {
+
+            char c = buf[i];
+            if (c < DENSE_SIZE) {
+                buf[i] = table[c];
+            } else if (!noSparse) {
+                int index = Arrays.binarySearch(sparseFrom, c);
+                if (index >= 0) {
+                    buf[i] = sparseTo[index];
+                }
+            }
+        }
+    }
+
+    //one key that does this key and then next, so converting between two keys is a single pass
+    public CompiledKey andThen(CompiledKey next) {
+        char[] composed = new char[DENSE_SIZE];
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            composed[i] = next.translate(dense[i]);
+        }
+
+        //a char above the dense range changes if either key changes it
+        char[] from = union(sparseFrom, next.sparseFrom);
+        char[] to = new char[from.length];
+        for (int i = 0; i < from.length; i++) {
+            to[i] = next.translate(translate(from[i]));
+        }
+        return new CompiledKey(composed, from, to);
+    }
+
+    //true when only ASCII chars change, so any ASCII compatible encoding can be translated byte by byte
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    //true when only latin-1 chars change, so ISO-8859-1 text can be translated byte by byte
+    public boolean isSingleByte() {
+        return byteTable != null;
+    }
+
+    //translates buf[from, to) in place, only valid when isSingleByte() is true
+    public void translate(byte[] buf, int from, int to) {
+        if (ascii && to - from >= VectorSupport.MIN_LENGTH && VectorSupport.isAvailable()) {
+            VectorSupport.TRANSLATOR.translate(byteTable, buf, from, to);
+            return;
+        }
+        byte[] table = byteTable;
+
+        for (int i = from; i < to; i++) {
+            buf[i] = table[buf[i] & 0xFF];
+        }
+    }
+
+    //the bytes that translate to target, byte for byte, or null if a byte of target has no
+    //source or more than one (keys are not always one to one); only valid when isSingleByte() is true
+    byte[] uniqueSource(byte[] target) {
+        byte[][] sources = sources(target);
+        byte[] source = new byte[target.length];
+        for (int i = 0; i < target.length; i++) {
+            if (sources[i].length != 1) {
+                return null;
+            }
+            source[i] = sources[i][0];
+        }
+        return source;
+    }
+
+    //for every byte of target, all the bytes that translate to it (possibly none);
+    //only valid when isSingleByte() is true
+    byte[][] sources(byte[] target) {
+        byte[][] sources = new byte[target.length][];
+        for (int i = 0; i < target.length; i++) {
+            byte[] found = new byte[DENSE_SIZE];
+            int count = 0;
+            for (int b = 0; b < DENSE_SIZE; b++) {
+                if (byteTable[b] == target[i]) {
+                    found[count++] = (byte) b;
+                }
+            }
+            sources[i] = Arrays.copyOf(found, count);
+        }
+        return sources;
+    }
+
+    private static byte[] buildByteTable(char[] dense, char[] sparseFrom, char[] sparseTo) {
+        for (int i = 0; i < sparseFrom.length; i++) {
+            if (sparseFrom[i] != sparseTo[i]) {
+                return null;
+            }
+        }
+
+        byte[] table = new byte[DENSE_SIZE];
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            if (dense[i] >= DENSE_SIZE) {
+                return null;
+            }
+            table[i] = (byte) dense[i];
+        }
+        return table;
+    }
+
+    private static boolean onlyChangesAscii(char[] dense) {
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            if (dense[i] != i && (i >= 128 || dense[i] >= 128)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char[] identityTable() {
+        char[] table = new char[DENSE_SIZE];
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            table[i] = (char) i;
+        }
+        return table;
+    }
+
+    //merges two sorted arrays, dropping duplicates
+    private static char[] union(char[] a, char[] b) {
+        char[] merged = new char[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            char next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (n == 0 || merged[n - 1] != next) {
+                merged[n++] = next;
+            }
+        }
+        return Arrays.copyOf(merged, n);
+    }
+
+    private static char[] insert(char[] array, int index, char value) {
+        char[] grown = new char[array.length + 1];
+        System.arraycopy(array, 0, grown, 0, index);
+        grown[index] = value;
+        System.arraycopy(array, index, grown, index + 1, array.length - index);
+        return grown;
+    }
+}
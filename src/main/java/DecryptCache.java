@@ -0,0 +1,116 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bounded LRU cache of deciphered files, keyed by file name and key path.
+ *
+ * Every entry remembers the mtime and size of both the data file and the
+ * key file it was made from; a lookup with different values is a miss and
+ * drops the stale entry. Entries are evicted least recently used first
+ * once the cached bytes go over the limit.
+ */
+public class DecryptCache {
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    //a single entry may use at most a quarter of the cache
+    public DecryptCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 4;
+    }
+
+    //whether a file of this size would be cached at all; a cache of size 0 takes nothing
+    public boolean accepts(long size) {
+        return maxBytes > 0 && size <= maxEntryBytes;
+    }
+
+    //deciphered content, or null if it is not cached or the file or key changed since
+    public synchronized byte[] get(String fileName, String keyPath, FileStamp file, FileStamp key) {
+        String cacheKey = cacheKey(fileName, keyPath);
+        Entry entry = entries.get(cacheKey);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (!entry.file.equals(file) || !entry.key.equals(key)) {
+            remove(cacheKey);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.content;
+    }
+
+    public synchronized void put(String fileName, String keyPath, FileStamp file, FileStamp key, byte[] content) {
+        if (!accepts(content.length)) {
+            return;
+        }
+        String cacheKey = cacheKey(fileName, keyPath);
+        remove(cacheKey);
+        entries.put(cacheKey, new Entry(file, key, content));
+        cachedBytes += content.length;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().content.length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(String cacheKey) {
+        Entry old = entries.remove(cacheKey);
+        if (old != null) {
+            cachedBytes -= old.content.length;
+        }
+    }
+
+    private static String cacheKey(String fileName, String keyPath) {
+        return fileName + '\0' + keyPath;
+    }
+
+    private static final class Entry {
+        final FileStamp file;
+        final FileStamp key;
+        final byte[] content;
+
+        Entry(FileStamp file, FileStamp key, byte[] content) {
+            this.file = file;
+            this.key = key;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Long-running mode: serves ProgramControl over HTTP on the loopback
+ * interface, so the JVM, the directory index and the caches stay warm
+ * between requests.
+ *
+ *   GET /files                  -> "NN name" lines, like the CLI list
+ *   GET /files/NN?key=KEY_PATH  -> deciphered content (without a key, the file's
+ *                                  key from data/keys.properties or ciphers/key.txt)
+ *       &offset=N[&length=N]    -> only that byte range of it (to the end without a length)
+ *       &lines=A-B              -> only those lines of it
+ *
+ * Errors are sent as status 400 with "Error: <message>" as the body.
+ * Each request runs on its own virtual thread when the JVM has them
+ * (Java 21+), otherwise on a cached thread pool.
+ */
+public class DecryptServer {
+    static final int DEFAULT_PORT = 8750;
+
+    private final ProgramControl control;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public DecryptServer(ProgramControl control, int port) throws IOException {
+        this.control = control;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/files", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    //a virtual thread per request where available, looked up reflectively so this still runs on Java 17
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        ResponseChannel response = new ResponseChannel(exchange);
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                throw new Exception("Only GET is supported");
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/files") || path.equals("/files/")) {
+                listFiles(response);
+            } else {
+                String fileCode = path.substring("/files/".length());
+                if (!fileCode.matches("\\d{2}")) {
+                    throw new Exception("Invalid file number. Must be two digits like 01.");
+                }
+                String query = exchange.getRequestURI().getRawQuery();
+                String keyPath = queryParameter(query, "key");
+                //no key means each file's own key, the same as on the command line
+                keyPath = keyPath == null || keyPath.isBlank() ? null : keyPath;
+                String offset = queryParameter(query, "offset");
+                String lines = queryParameter(query, "lines");
+                if (offset != null) {
+                    //no length means the rest of the file
+                    String length = queryParameter(query, "length");
+                    long start = parseNumber(offset);
+                    control.writeFileRange(Integer.parseInt(fileCode), keyPath, start,
+                            length == null ? Long.MAX_VALUE - start : parseNumber(length), response);
+                } else if (lines != null) {
+                    long[] range = parseLines(lines);
+                    control.writeFileLines(Integer.parseInt(fileCode), keyPath, range[0], range[1], response);
+                } else {
+                    control.writeFileContent(Integer.parseInt(fileCode), keyPath, response);
+                }
+            }
+        } catch (Exception e) {
+            //once content has started there is no way to report the error but cutting the response short
+            if (!response.started) {
+                response.sendError(e.getMessage());
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private void listFiles(ResponseChannel response) throws Exception {
+        List<String> files = control.getFileList();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < files.size(); i++) {
+            body.append(String.format("%02d %s%n", i + 1, files.get(i)));
+        }
+        ProgramControl.writeFully(ByteBuffer.wrap(body.toString().getBytes(StandardCharsets.UTF_8)), response);
+    }
+
+    private static long parseNumber(String value) throws Exception {
+        if (value == null || !value.matches("\\d{1,18}")) {
+            throw new Exception("offset and length must be numbers");
+        }
+        return Long.parseLong(value);
+    }
+
+    //"A-B" as {A, B}
+    private static long[] parseLines(String value) throws Exception {
+        if (value == null || !value.matches("\\d{1,18}-\\d{1,18}")) {
+            throw new Exception("Lines must be a range like 100-150");
+        }
+        int dash = value.indexOf('-');
+        return new long[] {Long.parseLong(value.substring(0, dash)), Long.parseLong(value.substring(dash + 1))};
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            if (URLDecoder.decode(key, StandardCharsets.UTF_8).equals(name)) {
+                return equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    //sends a chunked 200 on the first write, so errors before any output can still become a 400
+    private static final class ResponseChannel implements WritableByteChannel {
+        private final HttpExchange exchange;
+        private WritableByteChannel body;
+        private boolean started = false;
+        private boolean open = true;
+
+        ResponseChannel(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!started) {
+                start();
+            }
+            return body.write(src);
+        }
+
+        void sendError(String message) throws IOException {
+            started = true;
+            byte[] text = ("Error: " + message + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(400, text.length);
+            exchange.getResponseBody().write(text);
+        }
+
+        private void start() throws IOException {
+            started = true;
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream stream = exchange.getResponseBody();
+            body = Channels.newChannel(stream);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (!started) {
+                //nothing was written and no error was sent, so this is an empty 200
+                started = true;
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        }
+    }
+}
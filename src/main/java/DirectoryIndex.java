@@ -0,0 +1,114 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * In-memory, name-sorted list of the files in a directory whose names end
+ * in one of the given suffixes (such as .txt and .txt.gz).
+ *
+ * Adding, removing or renaming an entry changes the directory's mtime, so
+ * each lookup costs one stat of the directory instead of a full listing
+ * plus a stat per file. When the listing does change, names that were
+ * already known to be files are not checked again.
+ */
+public class DirectoryIndex {
+    //a scan this close to the directory's mtime may have raced with another change in the same tick
+    private static final long RACY_WINDOW_MILLIS = 2000;
+
+    private final File directory;
+    private final String[] suffixes;
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), -1, -1);
+
+    public DirectoryIndex(File directory, String... suffixes) {
+        this.directory = directory;
+        this.suffixes = suffixes.clone();
+    }
+
+    //sorted file names, the same list object is returned until the directory changes
+    public List<String> files() {
+        long modified = lastModified();
+        Snapshot current = snapshot;
+        if (current.isFresh(modified)) {
+            return current.names;
+        }
+        return refresh(modified);
+    }
+
+    //1-based lookup, null if there is no such file number
+    public String fileName(int fileNumber) {
+        List<String> names = files();
+        if (fileNumber < 1 || fileNumber > names.size()) {
+            return null;
+        }
+        return names.get(fileNumber - 1);
+    }
+
+    private synchronized List<String> refresh(long modified) {
+        Snapshot current = snapshot;
+        if (current.isFresh(modified)) {
+            return current.names;
+        }
+        if (modified < 0) {
+            snapshot = new Snapshot(Collections.emptyList(), modified, System.currentTimeMillis());
+            return snapshot.names;
+        }
+
+        long scannedAt = System.currentTimeMillis();
+        String[] entries = directory.list();
+        List<String> names = new ArrayList<>();
+        if (entries != null) {
+            Set<String> known = new HashSet<>(current.names);
+            for (String name : entries) {
+                if (hasSuffix(name) && (known.contains(name) || new File(directory, name).isFile())) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+
+        snapshot = new Snapshot(Collections.unmodifiableList(names), modified, scannedAt);
+        return snapshot.names;
+    }
+
+    private boolean hasSuffix(String name) {
+        for (String suffix : suffixes) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //directory mtime in millis, -1 if it is missing or not a directory
+    private long lastModified() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(directory.toPath(), BasicFileAttributes.class);
+            return attributes.isDirectory() ? attributes.lastModifiedTime().toMillis() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static final class Snapshot {
+        final List<String> names;
+        final long modified;
+        final long scannedAt;
+
+        Snapshot(List<String> names, long modified, long scannedAt) {
+            this.names = names;
+            this.modified = modified;
+            this.scannedAt = scannedAt;
+        }
+
+        boolean isFresh(long currentModified) {
+            return scannedAt >= 0 && currentModified == modified
+                    && (modified < 0 || scannedAt - modified > RACY_WINDOW_MILLIS);
+        }
+    }
+}
@@ -1,32 +1,58 @@
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.List;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class FileHandler {
 
-    public static ArrayList<String> listFiles()  {
+    //files whose name ends in this are gzip-compressed: they are read and written through a
+    //(de)compressing stream, so callers see the same bytes as for the uncompressed file
+    static final String GZIP_SUFFIX = ".gz";
+    //inflater/deflater buffer, large enough that a compressed file is read in big sequential chunks
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
 
-        ArrayList<String> files = new ArrayList<>();
+    //data/ is listed through a cached index that only rescans when the directory changes
+    private static final DirectoryIndex DATA_INDEX = new DirectoryIndex(new File("data"), ".txt", ".txt" + GZIP_SUFFIX);
 
-        File file = new File("data");
+    //sorted names of the files in data/, an unmodifiable list that is shared until data/ changes
+    public static List<String> listFiles()  {
 
-        if(!file.exists() || !file.isDirectory()) {
-            return files;
-        }
+        return DATA_INDEX.files();
 
-        File[] fileList = file.listFiles();
+    }
 
-        if (fileList != null) {
-            for (File f : fileList) {
-                if(f.isFile() && f.getName().endsWith(".txt")) {
-                    files.add(f.getName());
-                }
-            }
-        }
+    //1-based lookup in listFiles without copying the listing, null if there is no such file number
+    public static String getFileName(int fileNumber) {
+        return DATA_INDEX.fileName(fileNumber);
+    }
 
-        return files;
+    //charset of the files in data/ and of key files, UTF-8 unless -Dtopsecret.charset says otherwise
+    private static final Charset CHARSET = Charset.forName(System.getProperty("topsecret.charset", "UTF-8"));
+
+    public static Charset getCharset() {
+        return CHARSET;
+    }
 
+    //true for NAME.txt.gz; offsets into such a file are offsets into its uncompressed content
+    public static boolean isCompressed(String fileName) {
+        return fileName.endsWith(GZIP_SUFFIX);
     }
 
     public static String readKeyFile(String filePath) {
@@ -37,17 +63,29 @@ public class FileHandler {
             return null;
         }
 
-        try (Scanner scanner = new Scanner(file)) {
-            StringBuilder fileContent = new StringBuilder();
-            while (scanner.hasNextLine()) {
-                fileContent.append(scanner.nextLine()).append("\n");
-            }
-            return fileContent.toString();
-        } catch (FileNotFoundException e) {
+        try {
+            return readFile(file, CHARSET);
+        } catch (IOException e) {
             return null;
         }
     }
-  public static String getFile(String fileName) throws FileNotFoundException {
+
+    //saves a key file (creating its directory if needed), false if it could not be written
+    public static boolean writeKeyFile(String filePath, String content) {
+        try {
+            Path path = new File(filePath).toPath();
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Files.writeString(path, content, CHARSET);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    //whole file as a String, the bytes are decoded as they are (line endings are not changed)
+  public static String getFile(String fileName) throws IOException {
 
         File file = new File("data/" + fileName);
 
@@ -55,16 +93,290 @@ public class FileHandler {
             return "File not found!";
         }
 
-        String fileContent = "";
-        Scanner scanner = new Scanner(file);
+        return readFile(file, CHARSET);
+
+    }
+
+    //one read into a presized array and a single decode, which the JDK does without
+    //a CharsetDecoder for UTF-8 and ISO-8859-1
+    static String readFile(File file, Charset charset) throws IOException {
+        if (isCompressed(file.getName())) {
+            try (InputStream in = openCompressed(file)) {
+                return new String(in.readAllBytes(), charset);
+            }
+        }
+        return new String(Files.readAllBytes(file.toPath()), charset);
+    }
+
+    //opens a file in data/ for streaming reads, null if it does not exist
+    public static ReadableByteChannel openFile(String fileName) throws IOException {
+
+        File file = new File("data/" + fileName);
+
+        if (!file.exists() || !file.isFile()) {
+            return null;
+        }
+
+        return open(file);
+    }
+
+    //opens any file (not only one in data/) for streaming reads, null if it does not exist
+    public static ReadableByteChannel openPath(String path) throws IOException {
+
+        File file = new File(path);
+
+        if (!file.exists() || !file.isFile()) {
+            return null;
+        }
+
+        return open(file);
+    }
+
+    //opens bytes [position, position + length) of a file in data/ for streaming reads, null if it does not
+    //exist; reads are positioned, so nothing outside the range is read (a compressed file has to be
+    //decompressed from the start up to position instead)
+    public static ReadableByteChannel openFileRange(String fileName, long position, long length) throws IOException {
+
+        File file = new File("data/" + fileName);
+
+        if (!file.exists() || !file.isFile()) {
+            return null;
+        }
+
+        if (isCompressed(fileName)) {
+            InputStream in = openCompressed(file);
+            try {
+                skip(in, position);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return new LimitChannel(Channels.newChannel(in), length);
+        }
+
+        return new RangeChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ), position, length);
+    }
+
+    //up to length bytes of a file in data/ starting at position, fewer at the end of the file;
+    //null if the file does not exist
+    public static byte[] readRange(String fileName, long position, int length) throws IOException {
+
+        File file = new File("data/" + fileName);
+
+        if (!file.exists() || !file.isFile()) {
+            return null;
+        }
+
+        if (isCompressed(fileName)) {
+            try (InputStream in = openCompressed(file)) {
+                skip(in, position);
+                return in.readNBytes(length);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - position)));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    //paths of the .txt files in a key directory such as ciphers/, sorted by name
+    public static List<String> listKeyFiles(String directory) {
+        return listDirectory(directory, ".txt");
+    }
+
+    //paths of the .txt and .txt.gz files in any directory, sorted by name
+    public static List<String> listTextFiles(String directory) {
+        return listDirectory(directory, ".txt", ".txt" + GZIP_SUFFIX);
+    }
+
+    private static List<String> listDirectory(String directory, String... suffixes) {
+        List<String> files = new ArrayList<>();
+        for (String name : new DirectoryIndex(new File(directory), suffixes).files()) {
+            files.add(new File(directory, name).getPath());
+        }
+        return files;
+    }
+
+    //mtime and size of a file in data/, null if it does not exist
+    public static FileStamp getFileStamp(String fileName) {
+        return stamp(new File("data/" + fileName));
+    }
+
+    //mtime and size of a key file, null if it does not exist
+    public static FileStamp getKeyFileStamp(String filePath) {
+        return stamp(new File(filePath));
+    }
+
+    private static FileStamp stamp(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new FileStamp(attributes.lastModifiedTime().toMillis(), attributes.size());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //hidden file in data/ that a new version of fileName is written to before it replaces the original;
+    //it does not end in .txt, so it never shows up in listFiles
+    private static File replacementFile(String fileName) {
+        return new File("data/." + fileName + ".new");
+    }
+
+    //opens the replacement for a file in data/, see commitReplacement; it is compressed if fileName is
+    public static WritableByteChannel createReplacement(String fileName) throws IOException {
+        return create(replacementFile(fileName).toPath(), isCompressed(fileName));
+    }
+
+    //flushes the replacement to disk and moves it over data/fileName in one step,
+    //so readers see either the old or the new file and never half of one
+    public static void commitReplacement(String fileName) throws IOException {
+        Path replacement = replacementFile(fileName).toPath();
+        try (FileChannel channel = FileChannel.open(replacement, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        Path target = new File("data/" + fileName).toPath();
+        try {
+            Files.move(replacement, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(replacement, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //removes a replacement that was not committed
+    public static void discardReplacement(String fileName) {
+        try {
+            Files.deleteIfExists(replacementFile(fileName).toPath());
+        } catch (IOException e) {
+            //a leftover hidden file is harmless, it is truncated by the next createReplacement
+        }
+    }
+
+    //creates (or truncates) directory/fileName for writing, creating the directory if needed;
+    //a NAME.gz file is written compressed
+    public static WritableByteChannel createOutputFile(String directory, String fileName) throws IOException {
+
+        File dir = new File(directory);
+        Files.createDirectories(dir.toPath());
+
+        return create(new File(dir, fileName).toPath(), isCompressed(fileName));
+    }
+
+    private static ReadableByteChannel open(File file) throws IOException {
+        if (isCompressed(file.getName())) {
+            return Channels.newChannel(openCompressed(file));
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    private static InputStream openCompressed(File file) throws IOException {
+        InputStream in = Files.newInputStream(file.toPath());
+        try {
+            return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw new IOException("Not a gzip file: " + file.getName(), e);
+        }
+    }
+
+    private static WritableByteChannel create(Path path, boolean compressed) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        if (!compressed) {
+            return channel;
+        }
+        //closing the channel finishes the gzip trailer before the file is closed
+        return Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(channel), GZIP_BUFFER_SIZE));
+    }
+
+    //skips count bytes of a decompressed stream; past the end it stops at the end
+    private static void skip(InputStream in, long count) throws IOException {
+        try {
+            in.skipNBytes(count);
+        } catch (EOFException e) {
+            //nothing left, reads return end of stream
+        }
+    }
+
+    //the first length bytes of another channel
+    private static final class LimitChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private long remaining;
+
+        LimitChannel(ReadableByteChannel channel, long length) {
+            this.channel = channel;
+            this.remaining = length;
+        }
 
-        while (scanner.hasNextLine()) {
-            fileContent = fileContent + scanner.nextLine() + "\n";
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer window = dst.duplicate();
+            window.limit(window.position() + (int) Math.min(dst.remaining(), remaining));
+            int read = channel.read(window);
+            if (read > 0) {
+                remaining -= read;
+                dst.position(window.position());
+            }
+            return read;
         }
 
-        scanner.close();
-        return fileContent;
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
 
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
     }
 
+    private static final class RangeChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RangeChannel(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            ByteBuffer window = dst.duplicate();
+            window.limit(window.position() + (int) Math.min(dst.remaining(), end - position));
+            int read = channel.read(window, position);
+            if (read > 0) {
+                position += read;
+                dst.position(window.position());
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
 }
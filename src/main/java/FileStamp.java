@@ -0,0 +1,35 @@
+/*
+ * The mtime and size of a file at one point in time, used to notice that a
+ * file changed since something was computed from it.
+ */
+public final class FileStamp {
+    private final long modified;
+    private final long size;
+
+    public FileStamp(long modified, long size) {
+        this.modified = modified;
+        this.size = size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileStamp)) {
+            return false;
+        }
+        FileStamp other = (FileStamp) o;
+        return modified == other.modified && size == other.size;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(modified) * 31 + Long.hashCode(size);
+    }
+}
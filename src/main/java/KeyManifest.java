@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/*
+ * Which key goes with which file in data/, kept next to the files as
+ * data/keys.properties:
+ *
+ *   # file name = key path
+ *   report.txt=ciphers/key2.txt
+ *   notes.txt=ciphers/recovered-03.txt
+ *
+ * A file that is not listed uses the default key. The manifest is a
+ * separate file rather than a header line in each data file so the cipher
+ * text stays exactly what was encrypted: byte offsets, line numbers, the
+ * search index and --rekey all keep working on the files as they are.
+ */
+public final class KeyManifest {
+    static final String FILE_NAME = "keys.properties";
+
+    //the manifest of a data/ directory that has none
+    static final KeyManifest EMPTY = new KeyManifest(null, Collections.emptyMap());
+
+    private final FileStamp stamp;
+    private final Map<String, String> keyPaths;
+
+    private KeyManifest(FileStamp stamp, Map<String, String> keyPaths) {
+        this.stamp = stamp;
+        this.keyPaths = keyPaths;
+    }
+
+    //parses the manifest, stamp is the one it was read with (null if it was not read from disk)
+    public static KeyManifest read(byte[] bytes, FileStamp stamp) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+        Map<String, String> keyPaths = new TreeMap<>();
+        for (String fileName : properties.stringPropertyNames()) {
+            String keyPath = properties.getProperty(fileName).trim();
+            if (!keyPath.isEmpty()) {
+                keyPaths.put(fileName, keyPath);
+            }
+        }
+        return new KeyManifest(stamp, Collections.unmodifiableMap(keyPaths));
+    }
+
+    public FileStamp getStamp() {
+        return stamp;
+    }
+
+    public int size() {
+        return keyPaths.size();
+    }
+
+    //the key of the file, defaultKeyPath if the manifest does not name one
+    public String keyPathFor(String fileName, String defaultKeyPath) {
+        return keyPaths.getOrDefault(fileName, defaultKeyPath);
+    }
+
+    //a copy with the files set to keyPath; files set to the default key are left out
+    public KeyManifest with(List<String> fileNames, String keyPath, String defaultKeyPath) {
+        Map<String, String> updated = new TreeMap<>(keyPaths);
+        for (String fileName : fileNames) {
+            if (keyPath.equals(defaultKeyPath)) {
+                updated.remove(fileName);
+            } else {
+                updated.put(fileName, keyPath);
+            }
+        }
+        return new KeyManifest(null, Collections.unmodifiableMap(updated));
+    }
+
+    public boolean sameEntries(KeyManifest other) {
+        return keyPaths.equals(other.keyPaths);
+    }
+
+    //one "name=path" line per file, sorted, in the escaping Properties.load reads back
+    public void write(WritableByteChannel out) throws IOException {
+        StringBuilder text = new StringBuilder("# file in data/ = key file, files not listed use the default key\n");
+        for (Map.Entry<String, String> entry : keyPaths.entrySet()) {
+            text.append(escape(entry.getKey(), true)).append('=').append(escape(entry.getValue(), false)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static String escape(String s, boolean isKey) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || ((isKey || i == 0) && " =:#!".indexOf(c) >= 0)) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
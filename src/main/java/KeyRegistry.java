@@ -0,0 +1,118 @@
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Compiled keys by key file path, in both directions (decrypt and encrypt).
+ *
+ * A cached key is reused as long as the file's mtime and size are the
+ * same. When they change the file is read again, and if its content did
+ * not change either (a touch, or a copy of the same key) the compiled key
+ * is kept instead of being rebuilt. Key files are a few hundred bytes, so
+ * the content itself is kept for the comparison. The encrypt direction is
+ * only compiled the first time it is asked for.
+ */
+public class KeyRegistry {
+    private final ConcurrentHashMap<String, Entry> keys = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    //compiled key for the file, null if it is missing or not a valid key
+    public CompiledKey get(String keyPath) {
+        Entry entry = entry(keyPath);
+        return entry == null ? null : entry.key;
+    }
+
+    //compiled plain -> cipher key for the file, null if it is missing or not a valid key
+    public CompiledKey getEncryptKey(String keyPath) {
+        Entry entry = entry(keyPath);
+        return entry == null ? null : entry.encryptKey();
+    }
+
+    private Entry entry(String keyPath) {
+        FileStamp stamp = FileHandler.getKeyFileStamp(keyPath);
+        if (stamp == null) {
+            keys.remove(keyPath);
+            return null;
+        }
+
+        Entry entry = keys.get(keyPath);
+        if (entry != null && entry.stamp.equals(stamp)) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        return reload(keyPath, stamp, entry);
+    }
+
+    //loads every key file in the directory up front, returns how many were valid keys
+    public int preload(String directory) {
+        int loaded = 0;
+        List<String> keyFiles = FileHandler.listKeyFiles(directory);
+        for (String keyPath : keyFiles) {
+            if (get(keyPath) != null) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private Entry reload(String keyPath, FileStamp stamp, Entry previous) {
+        String content = FileHandler.readKeyFile(keyPath);
+        if (content == null) {
+            keys.remove(keyPath);
+            return null;
+        }
+
+        Entry entry = previous != null && previous.content.equals(content)
+                ? new Entry(stamp, previous)
+                : new Entry(stamp, content, CipherDecrypter.compileKey(content));
+
+        //invalid keys are remembered too, so a broken file is not re-read on every request
+        keys.put(keyPath, entry);
+        return entry;
+    }
+
+    private static final class Entry {
+        final FileStamp stamp;
+        final String content;
+        final CompiledKey key;
+        private volatile CompiledKey encryptKey;
+        //the encrypt key of an invalid key file is null too, this tells it apart from not compiled yet
+        private volatile boolean encryptCompiled;
+
+        Entry(FileStamp stamp, String content, CompiledKey key) {
+            this.stamp = stamp;
+            this.content = content;
+            this.key = key;
+        }
+
+        //same key file content under a new stamp, keeping what was already compiled
+        Entry(FileStamp stamp, Entry previous) {
+            this(stamp, previous.content, previous.key);
+            this.encryptKey = previous.encryptKey;
+            this.encryptCompiled = previous.encryptCompiled;
+        }
+
+        CompiledKey encryptKey() {
+            if (!encryptCompiled) {
+                //two threads may both compile it, they get equal keys
+                encryptKey = CipherDecrypter.compileEncryptKey(content);
+                encryptCompiled = true;
+            }
+            return encryptKey;
+        }
+    }
+}
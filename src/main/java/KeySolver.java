@@ -0,0 +1,435 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * Recovers a lost key from the cipher text alone.
+ *
+ * The key is taken to be a one to one mapping of the 62 letters and
+ * digits, with everything else (spaces, punctuation) left as it is, which
+ * is what the key files in ciphers/ look like. A candidate key is scored
+ * by how English the text it gives looks: letter trigram statistics
+ * (english-trigrams.txt) plus how often letters are capitals at the start
+ * and inside of words, and how often a char is a digit.
+ *
+ * The text is only read once, to count its distinct cipher trigrams; the
+ * score of a key is a sum over those counts, and swapping two chars of a
+ * key only changes the trigrams that contain one of them, so each step of
+ * the search costs the same for a 1 KB file and a 1 GB one. The search is
+ * hill climbing over swaps, restarted from perturbed keys (iterated local
+ * search), with independent restarts running in parallel.
+ */
+public class KeySolver {
+    //the chars a key maps, in the order key files list them
+    static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz" + "ABCDEFGHIJKLMNOPQRSTUVWXYZ" + "0123456789";
+    static final int SIZE = ALPHABET.length();
+    //default number of independent searches, each on its own core
+    static final int DEFAULT_RESTARTS = 2 * Runtime.getRuntime().availableProcessors();
+    //perturb-and-climb rounds in one search
+    static final int ROUNDS = 25;
+
+    //cipher side: anything outside ALPHABET is a word break, runs of them count once
+    private static final int BREAK = SIZE;
+    private static final int SYMBOLS = SIZE + 1;
+    //plain side: 26 letters, case folded, plus the word break
+    private static final int SPACE = 26;
+    private static final int CLASSES = 27;
+
+    //a first guess: the most common cipher char is e, the next t, ...
+    private static final String FREQUENCY_ORDER = "etaoinshrdlcumwfgypbvkjxqz";
+    private static final String DIGIT_ORDER = "1023456789";
+
+    //how often a letter is a capital, at the start of a word and inside one, and how often a char is a digit
+    private static final double UPPER_AT_START = 0.12;
+    private static final double UPPER_INSIDE = 0.01;
+    private static final double DIGIT = 0.01;
+
+    /*
+     * Trigram and position counts of one cipher text, which is everything
+     * the search needs from it.
+     */
+    public static final class Statistics {
+        private final int[] trigrams;
+        private final int[] counts;
+        private final long[] atStart = new long[SIZE];
+        private final long[] inside = new long[SIZE];
+        private long chars;
+
+        private Statistics(int[] table) {
+            int distinct = 0;
+            for (int count : table) {
+                if (count > 0) {
+                    distinct++;
+                }
+            }
+            trigrams = new int[distinct];
+            counts = new int[distinct];
+            for (int id = 0, n = 0; id < table.length; id++) {
+                if (table[id] > 0) {
+                    trigrams[n] = id;
+                    counts[n++] = table[id];
+                }
+            }
+        }
+
+        //how many chars of ALPHABET the text has
+        public long getChars() {
+            return chars;
+        }
+    }
+
+    //reads the cipher text once and counts what the search needs
+    public static Statistics count(Reader in) throws IOException {
+        int[] table = new int[SYMBOLS * SYMBOLS * SYMBOLS];
+        long[] atStart = new long[SIZE];
+        long[] inside = new long[SIZE];
+        long chars = 0;
+
+        int first = BREAK;
+        int second = BREAK;
+        char[] buffer = new char[CipherStream.BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                int symbol = symbol(buffer[i]);
+                if (symbol == BREAK && second == BREAK) {
+                    continue;
+                }
+                if (symbol != BREAK) {
+                    chars++;
+                    if (second == BREAK) {
+                        atStart[symbol]++;
+                    } else {
+                        inside[symbol]++;
+                    }
+                }
+                table[(first * SYMBOLS + second) * SYMBOLS + symbol]++;
+                first = second;
+                second = symbol;
+            }
+        }
+
+        Statistics stats = new Statistics(table);
+        System.arraycopy(atStart, 0, stats.atStart, 0, SIZE);
+        System.arraycopy(inside, 0, stats.inside, 0, SIZE);
+        stats.chars = chars;
+        return stats;
+    }
+
+    //the best key found, as the content of a key file (plain line, then cipher line)
+    public static String solve(Statistics stats, int restarts, long seed) throws Exception {
+        List<Callable<Search>> searches = new ArrayList<>();
+        for (int i = 0; i < restarts; i++) {
+            long searchSeed = seed + i;
+            boolean perturbStart = i > 0;
+            searches.add(() -> {
+                Search search = new Search(stats, initialKey(stats));
+                search.run(new SplittableRandom(searchSeed), perturbStart);
+                return search;
+            });
+        }
+
+        Search best = null;
+        for (Future<Search> result : ForkJoinPool.commonPool().invokeAll(searches)) {
+            Search search;
+            try {
+                search = result.get();
+            } catch (ExecutionException e) {
+                throw new Exception("Key search failed: " + e.getCause().getMessage());
+            }
+            if (best == null || search.bestScore > best.bestScore) {
+                best = search;
+            }
+        }
+        return keyFile(best.bestKey);
+    }
+
+    //plain line then cipher line, so cipher char i deciphers to plain char i
+    static String keyFile(int[] key) {
+        StringBuilder plain = new StringBuilder();
+        StringBuilder cipher = new StringBuilder();
+        for (int symbol = 0; symbol < SIZE; symbol++) {
+            plain.append(ALPHABET.charAt(key[symbol]));
+            cipher.append(ALPHABET.charAt(symbol));
+        }
+        return plain + "\n" + cipher + "\n";
+    }
+
+    private static int symbol(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return 26 + c - 'A';
+        }
+        if (c >= '0' && c <= '9') {
+            return 52 + c - '0';
+        }
+        return BREAK;
+    }
+
+    //plain symbol -> trigram class
+    private static int fold(int plain) {
+        if (plain < 26) {
+            return plain;
+        }
+        return plain < 52 ? plain - 26 : SPACE;
+    }
+
+    //cipher chars ordered by count, given plain chars in English order
+    private static int[] initialKey(Statistics stats) {
+        Integer[] bySymbol = new Integer[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            bySymbol[i] = i;
+        }
+        java.util.Arrays.sort(bySymbol, (a, b) -> Long.compare(
+                stats.atStart[b] + stats.inside[b], stats.atStart[a] + stats.inside[a]));
+
+        String order = FREQUENCY_ORDER + FREQUENCY_ORDER.toUpperCase() + DIGIT_ORDER;
+        int[] key = new int[SIZE];
+        for (int rank = 0; rank < SIZE; rank++) {
+            key[bySymbol[rank]] = ALPHABET.indexOf(order.charAt(rank));
+        }
+        return key;
+    }
+
+    /*
+     * One hill climbing search, keeping the score of every distinct trigram
+     * so a swap is scored by looking only at the trigrams it changes.
+     */
+    private static final class Search {
+        private final Statistics stats;
+        private final int[] key;
+        //for each cipher symbol, the distinct trigrams it is part of (each once)
+        private final int[][] trigramsOf;
+        private final double[] trigramScore;
+        private double score;
+
+        int[] bestKey;
+        double bestScore = Double.NEGATIVE_INFINITY;
+
+        Search(Statistics stats, int[] key) {
+            this.stats = stats;
+            this.key = key;
+            this.trigramsOf = trigramsBySymbol(stats);
+            this.trigramScore = new double[stats.trigrams.length];
+            for (int t = 0; t < trigramScore.length; t++) {
+                trigramScore[t] = scoreTrigram(t);
+                score += trigramScore[t];
+            }
+            for (int symbol = 0; symbol < SIZE; symbol++) {
+                score += unary(symbol, key[symbol]);
+            }
+        }
+
+        void run(SplittableRandom random, boolean perturbStart) {
+            if (perturbStart) {
+                perturb(random, SIZE);
+            }
+            for (int round = 0; round < ROUNDS; round++) {
+                climb(random);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestKey = key.clone();
+                } else {
+                    //go back to the best key before perturbing again
+                    for (int symbol = 0; symbol < SIZE; symbol++) {
+                        if (key[symbol] != bestKey[symbol]) {
+                            int other = indexOf(key, bestKey[symbol]);
+                            swap(symbol, other);
+                        }
+                    }
+                }
+                perturb(random, 3);
+            }
+        }
+
+        //swaps that raise the score until none does
+        private void climb(SplittableRandom random) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                int offset = random.nextInt(SIZE);
+                for (int i = 0; i < SIZE; i++) {
+                    int a = (i + offset) % SIZE;
+                    if (trigramsOf[a].length == 0) {
+                        continue;
+                    }
+                    for (int b = 0; b < SIZE; b++) {
+                        if (b != a && delta(a, b) > 1e-9) {
+                            swap(a, b);
+                            improved = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        private void perturb(SplittableRandom random, int swaps) {
+            for (int i = 0; i < swaps; i++) {
+                int a = random.nextInt(SIZE);
+                int b = random.nextInt(SIZE);
+                if (a != b) {
+                    swap(a, b);
+                }
+            }
+        }
+
+        //score change of swapping the plain chars of cipher symbols a and b
+        private double delta(int a, int b) {
+            exchange(a, b);
+            double delta = unary(a, key[a]) + unary(b, key[b]) - unary(a, key[b]) - unary(b, key[a]);
+            for (int t : trigramsOf[a]) {
+                delta += scoreTrigram(t) - trigramScore[t];
+            }
+            for (int t : trigramsOf[b]) {
+                if (!contains(t, a)) {
+                    delta += scoreTrigram(t) - trigramScore[t];
+                }
+            }
+            exchange(a, b);
+            return delta;
+        }
+
+        private void swap(int a, int b) {
+            score += delta(a, b);
+            exchange(a, b);
+            for (int t : trigramsOf[a]) {
+                trigramScore[t] = scoreTrigram(t);
+            }
+            for (int t : trigramsOf[b]) {
+                trigramScore[t] = scoreTrigram(t);
+            }
+        }
+
+        private void exchange(int a, int b) {
+            int plain = key[a];
+            key[a] = key[b];
+            key[b] = plain;
+        }
+
+        private double scoreTrigram(int t) {
+            int id = stats.trigrams[t];
+            int third = id % SYMBOLS;
+            int second = id / SYMBOLS % SYMBOLS;
+            int first = id / SYMBOLS / SYMBOLS;
+            return stats.counts[t] * Model.TRIGRAMS[(plainClass(first) * CLASSES + plainClass(second)) * CLASSES
+                    + plainClass(third)];
+        }
+
+        private int plainClass(int cipherSymbol) {
+            return cipherSymbol == BREAK ? SPACE : fold(key[cipherSymbol]);
+        }
+
+        //how likely it is for cipher symbol to be plain char, given where in words it shows up
+        private double unary(int symbol, int plain) {
+            long start = stats.atStart[symbol];
+            long within = stats.inside[symbol];
+            if (plain >= 52) {
+                return (start + within) * Model.LOG_DIGIT;
+            }
+            if (plain >= 26) {
+                return start * Model.LOG_UPPER_AT_START + within * Model.LOG_UPPER_INSIDE;
+            }
+            return start * Model.LOG_LOWER_AT_START + within * Model.LOG_LOWER_INSIDE;
+        }
+
+        private boolean contains(int t, int symbol) {
+            int id = stats.trigrams[t];
+            return id % SYMBOLS == symbol || id / SYMBOLS % SYMBOLS == symbol || id / SYMBOLS / SYMBOLS == symbol;
+        }
+
+        private static int[][] trigramsBySymbol(Statistics stats) {
+            int[] sizes = new int[SIZE];
+            int[][] lists = new int[SIZE][];
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) {
+                    for (int symbol = 0; symbol < SIZE; symbol++) {
+                        lists[symbol] = new int[sizes[symbol]];
+                        sizes[symbol] = 0;
+                    }
+                }
+                for (int t = 0; t < stats.trigrams.length; t++) {
+                    int id = stats.trigrams[t];
+                    int third = id % SYMBOLS;
+                    int second = id / SYMBOLS % SYMBOLS;
+                    int first = id / SYMBOLS / SYMBOLS;
+                    int[] symbols = {first, second, third};
+                    for (int i = 0; i < 3; i++) {
+                        int symbol = symbols[i];
+                        boolean seen = (i > 0 && symbol == first) || (i > 1 && symbol == second);
+                        if (symbol != BREAK && !seen) {
+                            if (pass == 1) {
+                                lists[symbol][sizes[symbol]] = t;
+                            }
+                            sizes[symbol]++;
+                        }
+                    }
+                }
+            }
+            return lists;
+        }
+
+        private static int indexOf(int[] key, int plain) {
+            for (int symbol = 0; symbol < key.length; symbol++) {
+                if (key[symbol] == plain) {
+                    return symbol;
+                }
+            }
+            return -1;
+        }
+    }
+
+    //the English model, loaded the first time a key is solved
+    private static final class Model {
+        static final double[] TRIGRAMS = loadTrigrams();
+        static final double LOG_DIGIT = Math.log(DIGIT);
+        static final double LOG_UPPER_AT_START = Math.log(UPPER_AT_START * (1 - DIGIT));
+        static final double LOG_UPPER_INSIDE = Math.log(UPPER_INSIDE * (1 - DIGIT));
+        static final double LOG_LOWER_AT_START = Math.log((1 - UPPER_AT_START) * (1 - DIGIT));
+        static final double LOG_LOWER_INSIDE = Math.log((1 - UPPER_INSIDE) * (1 - DIGIT));
+
+        //log probability of every trigram of classes, unseen ones get a fraction of a count
+        private static double[] loadTrigrams() {
+            double[] counts = new double[CLASSES * CLASSES * CLASSES];
+            double total = 0;
+            try (InputStream resource = KeySolver.class.getResourceAsStream("/english-trigrams.txt")) {
+                if (resource == null) {
+                    throw new IllegalStateException("english-trigrams.txt is missing from the classpath");
+                }
+                BufferedReader lines = new BufferedReader(new InputStreamReader(resource, StandardCharsets.US_ASCII));
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] parts = line.split(" ");
+                    int id = 0;
+                    for (char c : parts[0].toCharArray()) {
+                        id = id * CLASSES + (c == '_' ? SPACE : c - 'a');
+                    }
+                    counts[id] = Double.parseDouble(parts[1]);
+                    total += counts[id];
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read english-trigrams.txt", e);
+            }
+
+            double[] logs = new double[counts.length];
+            for (int id = 0; id < counts.length; id++) {
+                logs[id] = Math.log((counts[id] > 0 ? counts[id] : 0.3) / total);
+            }
+            return logs;
+        }
+    }
+}
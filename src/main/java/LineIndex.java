@@ -0,0 +1,150 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/*
+ * A sparse line index: where every 1024th line of a file in data/ starts.
+ *
+ * Finding a line reads forward from the nearest indexed line instead of
+ * from the start of the file, so a page of a multi-GB file costs at most
+ * 1024 lines of reading. Lines are counted on '\n' bytes, which no key
+ * changes, so the index is the same for the cipher text and the plain
+ * text. --index keeps one next to each file as data/.NAME.lines.
+ *
+ * Layout, big endian: int magic, int version, int lines per entry,
+ * long mtime, long size, long length, int count, count longs of offsets.
+ * The length is that of the text the offsets are into, which for a
+ * .txt.gz file is not its size on disk.
+ */
+public final class LineIndex {
+    static final int EVERY = 1024;
+    //how much of the file is read at a time when counting lines
+    static final int SCAN_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x54534C49;
+    private static final int VERSION = 2;
+
+    private final FileStamp stamp;
+    //bytes of (decompressed) text, where the last line ends
+    private final long length;
+    //offsets[i] is where line i * EVERY + 1 starts
+    private final long[] offsets;
+
+    private LineIndex(FileStamp stamp, long length, long[] offsets) {
+        this.stamp = stamp;
+        this.length = length;
+        this.offsets = offsets;
+    }
+
+    //name of the saved index for a file in data/, it does not end in .txt so it is never listed
+    public static String fileName(String dataFileName) {
+        return "." + dataFileName + ".lines";
+    }
+
+    public FileStamp getStamp() {
+        return stamp;
+    }
+
+    //length of the text read by build, the end of an open-ended line range
+    public long getLength() {
+        return length;
+    }
+
+    //reads the whole file once; stamp should be taken before in was opened
+    public static LineIndex build(ReadableByteChannel in, FileStamp stamp) throws IOException {
+        long[] offsets = new long[16];
+        int count = 1;
+        long line = 1;
+        long position = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        byte[] buf = buffer.array();
+
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                if (buf[i] == '\n' && ++line % EVERY == 1) {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    offsets[count++] = position + i + 1;
+                }
+            }
+            position += read;
+            buffer.clear();
+        }
+        return new LineIndex(stamp, position, Arrays.copyOf(offsets, count));
+    }
+
+    //a saved index, null if the bytes are not one
+    public static LineIndex read(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != EVERY) {
+                return null;
+            }
+            FileStamp stamp = new FileStamp(buffer.getLong(), buffer.getLong());
+            long length = buffer.getLong();
+            long[] offsets = new long[buffer.getInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = buffer.getLong();
+            }
+            return new LineIndex(stamp, length, offsets);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public void write(WritableByteChannel out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(40 + offsets.length * 8);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(EVERY);
+        data.writeLong(stamp.getModified());
+        data.writeLong(stamp.getSize());
+        data.writeLong(length);
+        data.writeInt(offsets.length);
+        for (long offset : offsets) {
+            data.writeLong(offset);
+        }
+        OutputStream stream = Channels.newOutputStream(out);
+        bytes.writeTo(stream);
+        stream.flush();
+    }
+
+    //where line (1-based) of the file in data/ starts, -1 if the file has fewer lines
+    public long lineStart(String dataFileName, long line) throws IOException {
+        if (line < 1) {
+            throw new IllegalArgumentException("lines are numbered from 1");
+        }
+        int entry = (int) Math.min((line - 1) / EVERY, offsets.length - 1);
+        long current = (long) entry * EVERY + 1;
+        long position = offsets[entry];
+
+        while (current < line) {
+            byte[] chunk = FileHandler.readRange(dataFileName, position, SCAN_SIZE);
+            if (chunk == null || chunk.length == 0) {
+                return -1;
+            }
+            for (int i = 0; i < chunk.length && current < line; i++) {
+                if (chunk[i] == '\n') {
+                    current++;
+                    if (current == line) {
+                        position += i + 1;
+                        break;
+                    }
+                }
+            }
+            if (current < line) {
+                position += chunk.length;
+            }
+        }
+        return position < length ? position : -1;
+    }
+}
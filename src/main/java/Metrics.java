@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Per-stage counters and latency histograms for the decipher pipeline.
+ *
+ * Off by default: start() then returns DISABLED and record() returns at
+ * once, so the cost is one volatile read per call. Latencies go into
+ * power-of-two nanosecond buckets, which makes percentiles accurate to
+ * within a factor of two without keeping every sample.
+ */
+public final class Metrics {
+
+    public enum Stage { LIST, READ, KEY_LOAD, DECIPHER, WRITE }
+
+    static final long DISABLED = Long.MIN_VALUE;
+
+    private static volatile boolean enabled = false;
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static long start() {
+        return enabled ? System.nanoTime() : DISABLED;
+    }
+
+    public static void record(Stage stage, long start, long bytes) {
+        if (start != DISABLED) {
+            Table.STATS[stage.ordinal()].add(System.nanoTime() - start, bytes);
+        }
+    }
+
+    public static StageStats get(Stage stage) {
+        return Table.STATS[stage.ordinal()];
+    }
+
+    public static void reset() {
+        for (Stage stage : Stage.values()) {
+            Table.STATS[stage.ordinal()] = new StageStats();
+        }
+    }
+
+    //times every read() as READ, returns the channel itself when metrics are off
+    public static ReadableByteChannel timed(ReadableByteChannel in) {
+        if (!enabled) {
+            return in;
+        }
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                long start = start();
+                int read = in.read(dst);
+                record(Stage.READ, start, Math.max(read, 0));
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return in.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    //times every write() as WRITE, returns the channel itself when metrics are off
+    public static WritableByteChannel timed(WritableByteChannel out) {
+        if (!enabled) {
+            return out;
+        }
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                long start = start();
+                int written = out.write(src);
+                record(Stage.WRITE, start, written);
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return out.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    //the --stats table
+    public static String report(DecryptCache cache, KeyRegistry keys) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-9s %8s %10s %12s %10s %10s %10s%n",
+                "stage", "calls", "total ms", "bytes", "MB/s", "p50 us", "p99 us"));
+        for (Stage stage : Stage.values()) {
+            StageStats stats = get(stage);
+            report.append(String.format("%-9s %8d %10.2f %12d %10.1f %10.1f %10.1f%n",
+                    stage.name().toLowerCase(), stats.getCount(), stats.getTotalMillis(), stats.getBytes(),
+                    stats.getThroughputMBPerSecond(), stats.getP50Micros(), stats.getP99Micros()));
+        }
+        if (cache != null) {
+            report.append(String.format("decrypt cache: %d hits, %d misses (%.1f%% hit ratio), %d evictions%n",
+                    cache.getHits(), cache.getMisses(), ratio(cache.getHits(), cache.getMisses()),
+                    cache.getEvictions()));
+        }
+        if (keys != null) {
+            report.append(String.format("key registry:  %d hits, %d misses (%.1f%% hit ratio)%n",
+                    keys.getHits(), keys.getMisses(), ratio(keys.getHits(), keys.getMisses())));
+        }
+        return report.toString();
+    }
+
+    //registers the stage and cache statistics with the platform MBean server under "topsecret:*"
+    public static void registerMBeans(DecryptCache cache, KeyRegistry keys) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Stage stage : Stage.values()) {
+            StageStatsMXBean view = new StageStatsView(stage);
+            server.registerMBean(view, new ObjectName("topsecret:type=Stage,name=" + stage.name().toLowerCase()));
+        }
+        server.registerMBean(new CacheStatsView(cache::getHits, cache::getMisses),
+                new ObjectName("topsecret:type=Cache,name=decrypt"));
+        server.registerMBean(new CacheStatsView(keys::getHits, keys::getMisses),
+                new ObjectName("topsecret:type=Cache,name=keys"));
+    }
+
+    private static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses);
+    }
+
+    //created on first use, so a run without --stats never loads the counter classes
+    private static final class Table {
+        static final StageStats[] STATS = new StageStats[Stage.values().length];
+
+        static {
+            for (Stage stage : Stage.values()) {
+                STATS[stage.ordinal()] = new StageStats();
+            }
+        }
+    }
+
+    public static final class StageStats {
+        //bucket b counts latencies in [2^b, 2^(b+1)) nanoseconds
+        private static final int BUCKETS = 64;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void add(long elapsedNanos, long byteCount) {
+            long elapsed = Math.max(elapsedNanos, 1);
+            count.increment();
+            nanos.add(elapsed);
+            bytes.add(byteCount);
+            histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(elapsed));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getTotalMillis() {
+            return nanos.sum() / 1e6;
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public double getThroughputMBPerSecond() {
+            long totalNanos = nanos.sum();
+            return totalNanos == 0 ? 0 : (bytes.sum() / 1e6) / (totalNanos / 1e9);
+        }
+
+        public double getP50Micros() {
+            return percentileMicros(0.50);
+        }
+
+        public double getP99Micros() {
+            return percentileMicros(0.99);
+        }
+
+        //upper bound of the bucket the percentile falls in
+        double percentileMicros(double percentile) {
+            long total = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                total += histogram.get(b);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long wanted = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += histogram.get(b);
+                if (seen >= wanted) {
+                    return Math.pow(2, b + 1) / 1000.0;
+                }
+            }
+            return Math.pow(2, BUCKETS) / 1000.0;
+        }
+    }
+
+    public interface StageStatsMXBean {
+        long getCount();
+
+        double getTotalMillis();
+
+        long getBytes();
+
+        double getThroughputMBPerSecond();
+
+        double getP50Micros();
+
+        double getP99Micros();
+    }
+
+    public interface CacheStatsMXBean {
+        long getHits();
+
+        long getMisses();
+
+        double getHitRatioPercent();
+    }
+
+    //reads through to the current StageStats, so reset() is picked up
+    private static final class StageStatsView implements StageStatsMXBean {
+        private final Stage stage;
+
+        StageStatsView(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public long getCount() {
+            return get(stage).getCount();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return get(stage).getTotalMillis();
+        }
+
+        @Override
+        public long getBytes() {
+            return get(stage).getBytes();
+        }
+
+        @Override
+        public double getThroughputMBPerSecond() {
+            return get(stage).getThroughputMBPerSecond();
+        }
+
+        @Override
+        public double getP50Micros() {
+            return get(stage).getP50Micros();
+        }
+
+        @Override
+        public double getP99Micros() {
+            return get(stage).getP99Micros();
+        }
+    }
+
+    private static final class CacheStatsView implements CacheStatsMXBean {
+        private final LongSupplier hits;
+        private final LongSupplier misses;
+
+        CacheStatsView(LongSupplier hits, LongSupplier misses) {
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        @Override
+        public long getHits() {
+            return hits.getAsLong();
+        }
+
+        @Override
+        public long getMisses() {
+            return misses.getAsLong();
+        }
+
+        @Override
+        public double getHitRatioPercent() {
+            return ratio(hits.getAsLong(), misses.getAsLong());
+        }
+    }
+}
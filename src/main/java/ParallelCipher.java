@@ -0,0 +1,108 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Splits large buffers into chunks and translates them on a ForkJoinPool.
+ *
+ * Every char/byte is translated on its own, so chunks never depend on each
+ * other and are written back into the same positions they were read from,
+ * which keeps the output in order. Ranges below the threshold are
+ * translated on the calling thread.
+ */
+public class ParallelCipher {
+    //ranges shorter than this are not worth handing to the pool
+    static final int PARALLEL_THRESHOLD = 1024 * 1024;
+    //smallest piece a task is split into
+    static final int MIN_CHUNK = 64 * 1024;
+
+    static final ParallelCipher DEFAULT = new ParallelCipher(ForkJoinPool.commonPool(), PARALLEL_THRESHOLD);
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    public ParallelCipher(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = Math.max(threshold, MIN_CHUNK);
+    }
+
+    public boolean isParallel() {
+        return pool.getParallelism() > 1;
+    }
+
+    public void translate(CompiledKey key, char[] buf, int from, int to) {
+        if (to - from < threshold || !isParallel()) {
+            key.translate(buf, from, to);
+            return;
+        }
+        pool.invoke(new CharTask(key, buf, from, to, chunkSize(to - from)));
+    }
+
+    public void translate(CompiledKey key, byte[] buf, int from, int to) {
+        if (to - from < threshold || !isParallel()) {
+            key.translate(buf, from, to);
+            return;
+        }
+        pool.invoke(new ByteTask(key, buf, from, to, chunkSize(to - from)));
+    }
+
+    //a few chunks per worker so that uneven scheduling still balances out
+    private int chunkSize(int length) {
+        return Math.max(MIN_CHUNK, length / (pool.getParallelism() * 4));
+    }
+
+    private static class CharTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledKey key;
+        private final char[] buf;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        CharTask(CompiledKey key, char[] buf, int from, int to, int chunk) {
+            this.key = key;
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                key.translate(buf, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CharTask(key, buf, from, middle, chunk), new CharTask(key, buf, middle, to, chunk));
+        }
+    }
+
+    private static class ByteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledKey key;
+        private final byte[] buf;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        ByteTask(CompiledKey key, byte[] buf, int from, int to, int chunk) {
+            this.key = key;
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                key.translate(buf, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ByteTask(key, buf, from, middle, chunk), new ByteTask(key, buf, middle, to, chunk));
+        }
+    }
+}
@@ -1,13 +1,88 @@
 //Eliza Tan tpj4cd
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ProgramControl {
+    //default size of the deciphered file cache
+    static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+    //the key used when none is given (a null keyPath); files listed in data/keys.properties
+    //use their own key instead
+    static final String DEFAULT_KEY_PATH = "ciphers/key.txt";
+
+    private final DecryptCache cache;
+    private final KeyRegistry keys = new KeyRegistry();
+    //line indexes by file name, checked against the file's stamp before use
+    private final ConcurrentHashMap<String, LineIndex> lineIndexes = new ConcurrentHashMap<>();
+    //data/keys.properties as last read, checked against the file's stamp before use
+    private volatile KeyManifest manifest = KeyManifest.EMPTY;
+    //null means files are read and deciphered one buffer after the other
+    private volatile CipherPipeline pipeline = null;
+    //whether files written to an output directory are gzip-compressed (NAME.txt.gz)
+    private volatile boolean gzipOutput = false;
+
+    public ProgramControl() {
+        this(DEFAULT_CACHE_BYTES);
+    }
+
+    public ProgramControl(long cacheBytes) {
+        this.cache = new DecryptCache(cacheBytes);
+    }
+
+    public DecryptCache getCache() {
+        return cache;
+    }
+
+    public KeyRegistry getKeyRegistry() {
+        return keys;
+    }
+
+    //overlaps reading, deciphering and writing for keys that can be applied byte by byte
+    public void setPipeline(CipherPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    //compresses the files written by writeFilesTo and encryptFilesTo; files read from a .gz are
+    //written compressed either way, since they keep their names
+    public void setGzipOutput(boolean gzipOutput) {
+        this.gzipOutput = gzipOutput;
+    }
+
+    //name a file is written under in an output directory
+    protected String outputFileName(String fileName) {
+        return gzipOutput && !FileHandler.isCompressed(fileName) ? fileName + FileHandler.GZIP_SUFFIX : fileName;
+    }
+
+    //compiles every key in the directory now instead of on first use, returns how many were valid
+    public int preloadKeys(String keyDirectory) {
+        return keys.preload(keyDirectory);
+    }
+
     //gets list of files from filehandler and returns the names
     public List<String> getFileList() throws Exception {
-        ArrayList<String> files = FileHandler.listFiles();
+        long start = Metrics.start();
+        List<String> files = FileHandler.listFiles();
+        Metrics.record(Metrics.Stage.LIST, start, 0);
         //exception if none
         if (files == null) {
             throw new Exception("Unable to access file list");
@@ -17,8 +92,520 @@ public class ProgramControl {
     //getting the content of the file according to the fileNumber
     //keypath is the cipher key
     public String getFileContent(int fileNumber, String keyPath) throws Exception {
-        //getting files
+        String fileName = resolveFileName(fileNumber);
+        // read it -> use file handler
+        try {
+            String content = FileHandler.getFile(fileName);
+            //checking -> throw exception if no
+            if (content.equals("File not found!")) {
+                throw new Exception("File not found: " + fileName);
+            }
+            return content;
+        } catch (FileNotFoundException e) {
+            throw new Exception("File not found: " + fileName);
+        } catch (IOException e) {
+            throw new Exception("Could not read file: " + fileName);
+        }
+    }
+
+    //deciphers the file straight into out without holding the whole file in memory,
+    //small files are served from / added to the cache
+    public void writeFileContent(int fileNumber, String keyPath, WritableByteChannel out) throws Exception {
+        out = Metrics.timed(out);
+        String fileName = resolveFileName(fileNumber);
+        keyPath = keyPathFor(fileName, keyPath);
+
+        //stamped before reading, so a change made while reading shows up as a miss next time;
+        //a compressed file's stamp has its size on disk, not the size it deciphers to, so it is not cached
+        FileStamp fileStamp = FileHandler.getFileStamp(fileName);
+        FileStamp keyStamp = FileHandler.getKeyFileStamp(keyPath);
+        boolean cacheable = fileStamp != null && keyStamp != null && !FileHandler.isCompressed(fileName)
+                && cache.accepts(fileStamp.getSize());
+
+        if (cacheable) {
+            byte[] cached = cache.get(fileName, keyPath, fileStamp, keyStamp);
+            if (cached != null) {
+                writeFully(ByteBuffer.wrap(cached), out);
+                return;
+            }
+        }
+
+        CompiledKey key = loadKey(keyPath);
+        if (!cacheable) {
+            decipherFile(fileName, key, out);
+            return;
+        }
+
+        //a miss is still streamed, the cache gets a copy of what was written
+        CopyingChannel copying = new CopyingChannel(out, cache, (int) fileStamp.getSize());
+        decipherFile(fileName, key, copying);
+        byte[] content = copying.getCopy();
+        if (content != null) {
+            cache.put(fileName, keyPath, fileStamp, keyStamp, content);
+        }
+    }
+
+    //deciphers only bytes [offset, offset + length) of the file, reading nothing outside them;
+    //a range that ends past the end of the file stops at the end
+    public void writeFileRange(int fileNumber, String keyPath, long offset, long length,
+                               WritableByteChannel out) throws Exception {
+        if (offset < 0 || length < 0) {
+            throw new Exception("Offset and length cannot be negative");
+        }
+        writeRange(resolveFileName(fileNumber), keyPath, offset, length, out);
+    }
+
+    private void writeRange(String fileName, String keyPath, long offset, long length,
+                            WritableByteChannel out) throws Exception {
+        out = Metrics.timed(out);
+        CompiledKey key = loadKey(keyPathFor(fileName, keyPath));
+
+        try (ReadableByteChannel in = FileHandler.openFileRange(fileName, offset, length)) {
+            if (in == null) {
+                throw new Exception("File not found: " + fileName);
+            }
+            CipherStream.decipher(key, in, out, FileHandler.getCharset());
+        }
+    }
+
+    //deciphers lines firstLine to lastLine (1-based, inclusive) of the file, finding them through
+    //the file's line index instead of reading from the start
+    public void writeFileLines(int fileNumber, String keyPath, long firstLine, long lastLine,
+                               WritableByteChannel out) throws Exception {
+        if (firstLine < 1 || lastLine < firstLine) {
+            throw new Exception("Invalid line range " + firstLine + "-" + lastLine);
+        }
+        String fileName = resolveFileName(fileNumber);
+        FileStamp stamp = FileHandler.getFileStamp(fileName);
+        if (stamp == null) {
+            throw new Exception("File not found: " + fileName);
+        }
+
+        LineIndex lines = lineIndex(fileName, stamp);
+        long start = lines.lineStart(fileName, firstLine);
+        if (start < 0) {
+            throw new Exception("File " + String.format("%02d", fileNumber) + " has fewer than " + firstLine + " lines");
+        }
+        long end = lines.lineStart(fileName, lastLine + 1);
+        writeRange(fileName, keyPath, start, (end < 0 ? lines.getLength() : end) - start, out);
+    }
+
+    //the line index for the file: from memory, from data/.NAME.lines, or built by reading the file
+    private LineIndex lineIndex(String fileName, FileStamp stamp) throws Exception {
+        LineIndex cached = lineIndexes.get(fileName);
+        if (cached != null && cached.getStamp().equals(stamp)) {
+            return cached;
+        }
+
+        byte[] saved = FileHandler.readRange(LineIndex.fileName(fileName), 0, Integer.MAX_VALUE);
+        LineIndex lines = saved == null ? null : LineIndex.read(saved);
+        if (lines == null || !lines.getStamp().equals(stamp)) {
+            try (ReadableByteChannel in = FileHandler.openFile(fileName)) {
+                if (in == null) {
+                    throw new Exception("File not found: " + fileName);
+                }
+                lines = LineIndex.build(in, stamp);
+            }
+        }
+        lineIndexes.put(fileName, lines);
+        return lines;
+    }
+
+    //batch version of writeFileContent: the file list is read and each key compiled once,
+    //then the files are written to out in order, each after a "==> NN name <==" line
+    public void writeFiles(List<Integer> fileNumbers, String keyPath, WritableByteChannel out) throws Exception {
+        out = Metrics.timed(out);
+        List<String> files = getFileList();
+        List<String> fileNames = new ArrayList<>();
+        for (int fileNumber : fileNumbers) {
+            fileNames.add(resolveFileName(files, fileNumber));
+        }
+        Map<String, CompiledKey> keysByFile = loadKeys(fileNames, keyPath);
+
+        for (int i = 0; i < fileNames.size(); i++) {
+            writeFully(batchHeader(i == 0, fileNumbers.get(i), fileNames.get(i)), out);
+            decipherFile(fileNames.get(i), keysByFile.get(fileNames.get(i)), out);
+        }
+    }
+
+    //the "==> NN name <==" line written before each file by writeFiles
+    static ByteBuffer batchHeader(boolean first, int fileNumber, String fileName) {
+        String header = (first ? "" : "\n") + "==> " + String.format("%02d", fileNumber) + " " + fileName + " <==\n";
+        return ByteBuffer.wrap(header.getBytes(FileHandler.getCharset()));
+    }
+
+    //batch version of writeFileContent that deciphers the files in parallel into outputDir,
+    //keeping their names; every file is attempted even if some of them fail
+    public void writeFilesTo(List<Integer> fileNumbers, String keyPath, String outputDir) throws Exception {
+        //each output file is truncated before its source is read, which would empty data/
+        if (isDataDirectory(outputDir)) {
+            throw new Exception("Output directory cannot be data/, it holds the files being deciphered");
+        }
+        List<String> files = getFileList();
+        List<String> fileNames = new ArrayList<>();
+        for (int fileNumber : fileNumbers) {
+            fileNames.add(resolveFileName(files, fileNumber));
+        }
+        Map<String, CompiledKey> keysByFile = loadKeys(fileNames, keyPath);
+
+        forEachInParallel(fileNames, "decipher", fileName -> {
+            try (WritableByteChannel out = Metrics.timed(
+                    FileHandler.createOutputFile(outputDir, outputFileName(fileName)))) {
+                decipherFile(fileName, keysByFile.get(fileName), out);
+            }
+        });
+    }
+
+    //encrypts a plain text file (any path, not just data/) into out with the plain -> cipher side of the key
+    public void encryptFile(String sourcePath, String keyPath, WritableByteChannel out) throws Exception {
+        CompiledKey key = loadEncryptKey(keyPath);
+        encryptFile(sourcePath, key, Metrics.timed(out));
+    }
+
+    //batch version of encryptFile: encrypts the files in parallel into outputDir (data/ to publish
+    //them), keeping their names; every file is attempted even if some of them fail.
+    //Files published to data/ get keyPath recorded as their key in data/keys.properties
+    public void encryptFilesTo(List<String> sourcePaths, String keyPath, String outputDir) throws Exception {
+        //an output file is truncated before its source is read, so the two must not share a directory
+        File target = new File(outputDir).getCanonicalFile();
+        for (String sourcePath : sourcePaths) {
+            if (target.equals(new File(sourcePath).getCanonicalFile().getParentFile())) {
+                throw new Exception("Output directory cannot hold the files being encrypted: " + sourcePath);
+            }
+        }
+        CompiledKey key = loadEncryptKey(keyPath);
+        boolean publishing = isDataDirectory(outputDir);
+        Set<String> written = ConcurrentHashMap.newKeySet();
+
+        try {
+            forEachInParallel(sourcePaths, "encrypt", sourcePath -> {
+                String fileName = outputFileName(new File(sourcePath).getName());
+                try (WritableByteChannel out = Metrics.timed(FileHandler.createOutputFile(outputDir, fileName))) {
+                    encryptFile(sourcePath, key, out);
+                }
+                written.add(fileName);
+            });
+        } finally {
+            if (publishing && !written.isEmpty()) {
+                recordKeys(new ArrayList<>(written), keyPath);
+            }
+        }
+    }
+
+    //whether directory is data/, however it is spelled
+    private static boolean isDataDirectory(String directory) throws IOException {
+        return new File(directory).getCanonicalFile().equals(new File("data").getCanonicalFile());
+    }
+
+    //converts files in data/ from oldKeyPath (each file's own key when it is null) to
+    //newKeyPath in place: one pass with the two keys composed into one table, no plain text on
+    //disk, and each file replaced atomically when done; data/keys.properties follows the files
+    public void rekeyFiles(List<Integer> fileNumbers, String oldKeyPath, String newKeyPath) throws Exception {
         List<String> files = getFileList();
+        List<String> fileNames = new ArrayList<>();
+        for (int fileNumber : fileNumbers) {
+            fileNames.add(resolveFileName(files, fileNumber));
+        }
+        Map<String, CompiledKey> oldKeys = loadKeys(fileNames, oldKeyPath);
+        CompiledKey newKey = loadEncryptKey(newKeyPath);
+        Map<CompiledKey, CompiledKey> composed = new IdentityHashMap<>();
+        for (CompiledKey oldKey : oldKeys.values()) {
+            composed.computeIfAbsent(oldKey, k -> k.andThen(newKey));
+        }
+        Set<String> rekeyed = ConcurrentHashMap.newKeySet();
+
+        try {
+            forEachInParallel(fileNames, "re-key", fileName -> {
+                CompiledKey key = composed.get(oldKeys.get(fileName));
+                replaceDataFile(fileName, out -> decipherFile(fileName, key, Metrics.timed(out)));
+                rekeyed.add(fileName);
+            });
+        } finally {
+            if (!rekeyed.isEmpty()) {
+                recordKeys(new ArrayList<>(rekeyed), newKeyPath);
+            }
+        }
+    }
+
+    //finds query (plain text) in every file in data/ without deciphering them to anywhere,
+    //files are searched in parallel and the matches come back in file and offset order;
+    //files that are in data/.topsecret-index and unchanged since only have their candidate blocks read
+    public List<SearchMatch> search(String query, String keyPath) throws Exception {
+        if (query == null || query.isEmpty()) {
+            throw new Exception("Search query cannot be empty");
+        }
+        List<String> fileNames = getFileList();
+        Map<String, CompiledKey> keysByFile = loadKeys(fileNames, keyPath);
+        SearchIndex index = openIndex();
+
+        List<List<SearchMatch>> perFile = new ArrayList<>(Collections.nCopies(fileNames.size(), null));
+        forEachInParallel(fileNames, "search", (position, fileName) -> {
+            CompiledKey key = keysByFile.get(fileName);
+            FileStamp stamp = FileHandler.getFileStamp(fileName);
+            try {
+                //a compressed file cannot be read from the middle, so it is always scanned
+                boolean indexed = index != null && stamp != null && !FileHandler.isCompressed(fileName)
+                        && stamp.equals(index.getStamp(fileName))
+                        && CipherStream.canTranslateBytes(key, FileHandler.getCharset());
+                long[] ranges = indexed
+                        ? index.candidateRanges(fileName, key.sources(query.getBytes(FileHandler.getCharset())),
+                                stamp.getSize())
+                        : null;
+                if (ranges != null) {
+                    perFile.set(position, searchRanges(key, query, position + 1, fileName, ranges));
+                    return;
+                }
+                try (ReadableByteChannel in = FileHandler.openFile(fileName)) {
+                    if (in == null) {
+                        throw new Exception("File not found: " + fileName);
+                    }
+                    perFile.set(position, CipherSearch.search(key, query, in, FileHandler.getCharset(), position + 1,
+                            fileName));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new Exception("Invalid search query: " + e.getMessage());
+            }
+        });
+
+        List<SearchMatch> matches = new ArrayList<>();
+        for (List<SearchMatch> fileMatches : perFile) {
+            matches.addAll(fileMatches);
+        }
+        return matches;
+    }
+
+    //searches only the given [start, end) ranges of a file, keeping matches that start inside them
+    private static List<SearchMatch> searchRanges(CompiledKey key, String query, int fileNumber, String fileName,
+                                                  long[] ranges) throws Exception {
+        int queryLength = query.getBytes(FileHandler.getCharset()).length;
+        List<SearchMatch> matches = new ArrayList<>();
+        for (int i = 0; i < ranges.length; i += 2) {
+            long start = ranges[i];
+            long end = ranges[i + 1];
+            //room for snippets on both sides and for a match that starts at the end of the range
+            long readFrom = Math.max(0, start - CipherSearch.CONTEXT);
+            long readTo = end + queryLength - 1 + CipherSearch.CONTEXT;
+            byte[] bytes = FileHandler.readRange(fileName, readFrom, (int) (readTo - readFrom));
+            if (bytes == null) {
+                throw new Exception("File not found: " + fileName);
+            }
+
+            ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes));
+            for (SearchMatch match : CipherSearch.search(key, query, in, FileHandler.getCharset(), fileNumber, fileName)) {
+                long offset = readFrom + match.getOffset();
+                if (offset >= start && offset < end) {
+                    matches.add(new SearchMatch(fileNumber, fileName, offset, match.getSnippet()));
+                }
+            }
+        }
+        return matches;
+    }
+
+    //builds data/.topsecret-index, or brings it up to date by reading only the files whose mtime
+    //or size changed since it was written; returns how many files were read. Compressed files are
+    //left out: --search scans them, and their line indexes are built in memory when needed
+    public int updateIndex() throws Exception {
+        List<String> fileNames = new ArrayList<>();
+        for (String fileName : getFileList()) {
+            if (!FileHandler.isCompressed(fileName)) {
+                fileNames.add(fileName);
+            }
+        }
+        SearchIndex previous = openIndex();
+        List<FileStamp> stamps = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        //where each changed file is in fileNames
+        List<Integer> changedAt = new ArrayList<>();
+        for (int i = 0; i < fileNames.size(); i++) {
+            String fileName = fileNames.get(i);
+            FileStamp stamp = FileHandler.getFileStamp(fileName);
+            if (stamp == null) {
+                throw new Exception("File not found: " + fileName);
+            }
+            stamps.add(stamp);
+            if (previous == null || !stamp.equals(previous.getStamp(fileName))) {
+                changed.add(fileName);
+                changedAt.add(i);
+            }
+        }
+        if (changed.isEmpty() && previous != null && previous.size() == fileNames.size()) {
+            return 0;
+        }
+
+        List<long[]> fresh = new ArrayList<>(Collections.nCopies(fileNames.size(), null));
+        forEachInParallel(changed, "index", (i, fileName) -> {
+            int position = changedAt.get(i);
+            try (ReadableByteChannel in = FileHandler.openFile(fileName)) {
+                if (in == null) {
+                    throw new Exception("File not found: " + fileName);
+                }
+                fresh.set(position, SearchIndex.indexFile(in));
+            }
+            writeLineIndex(fileName, stamps.get(position));
+        });
+
+        replaceDataFile(SearchIndex.FILE_NAME, out -> SearchIndex.write(out, fileNames, stamps, fresh, previous));
+        return changed.size();
+    }
+
+    //works out the key of a file in data/ from its cipher text alone and saves it as a key file
+    //at keyPath (which must not exist yet); returns the key file's content
+    public String recoverKey(int fileNumber, String keyPath) throws Exception {
+        String fileName = resolveFileName(fileNumber);
+        if (new File(keyPath).exists()) {
+            throw new Exception("Key file already exists: " + keyPath);
+        }
+
+        KeySolver.Statistics stats;
+        try (ReadableByteChannel in = FileHandler.openFile(fileName)) {
+            if (in == null) {
+                throw new Exception("File not found: " + fileName);
+            }
+            stats = KeySolver.count(Channels.newReader(in, FileHandler.getCharset()));
+        }
+        if (stats.getChars() == 0) {
+            throw new Exception("No letters or digits to recover a key from in " + fileName);
+        }
+
+        String key = KeySolver.solve(stats, KeySolver.DEFAULT_RESTARTS, System.nanoTime());
+        if (!FileHandler.writeKeyFile(keyPath, key)) {
+            throw new Exception("Could not write key file: " + keyPath);
+        }
+        return key;
+    }
+
+    private static void writeLineIndex(String fileName, FileStamp stamp) throws Exception {
+        LineIndex lines;
+        try (ReadableByteChannel in = FileHandler.openFile(fileName)) {
+            if (in == null) {
+                throw new Exception("File not found: " + fileName);
+            }
+            lines = LineIndex.build(in, stamp);
+        }
+
+        replaceDataFile(LineIndex.fileName(fileName), lines::write);
+    }
+
+    private interface ChannelWriter {
+        void write(WritableByteChannel out) throws Exception;
+    }
+
+    //writes data/fileName through a hidden replacement that is moved over it only once it is complete
+    private static void replaceDataFile(String fileName, ChannelWriter writer) throws Exception {
+        boolean committed = false;
+        try {
+            try (WritableByteChannel out = FileHandler.createReplacement(fileName)) {
+                writer.write(out);
+            }
+            FileHandler.commitReplacement(fileName);
+            committed = true;
+        } finally {
+            if (!committed) {
+                FileHandler.discardReplacement(fileName);
+            }
+        }
+    }
+
+    //the index in data/, null if there is none or it cannot be read
+    private static SearchIndex openIndex() {
+        try (ReadableByteChannel in = FileHandler.openFile(SearchIndex.FILE_NAME)) {
+            if (!(in instanceof FileChannel)) {
+                return null;
+            }
+            return SearchIndex.read((FileChannel) in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private interface FileTask {
+        void run(String file) throws Exception;
+    }
+
+    //a FileTask that is also told where the file is in the list
+    private interface PositionedFileTask {
+        void run(int position, String file) throws Exception;
+    }
+
+    //runs task for every file on a pool sized to the machine, then throws one exception naming all that failed
+    private static void forEachInParallel(List<String> files, String action, FileTask task) throws Exception {
+        forEachInParallel(files, action, (position, file) -> task.run(file));
+    }
+
+    private static void forEachInParallel(List<String> files, String action, PositionedFileTask task)
+            throws Exception {
+        int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                int position = i;
+                results.add(executor.submit(() -> {
+                    task.run(position, files.get(position));
+                    return null;
+                }));
+            }
+
+            List<String> failed = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    failed.add(files.get(i) + " (" + e.getCause().getMessage() + ")");
+                }
+            }
+            if (!failed.isEmpty()) {
+                throw new Exception("Could not " + action + " " + failed.size() + " file(s): " + String.join(", ", failed));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void decipherFile(String fileName, CompiledKey key, WritableByteChannel out) throws Exception {
+        try (ReadableByteChannel in = FileHandler.openFile(fileName)) {
+            if (in == null) {
+                throw new Exception("File not found: " + fileName);
+            }
+            translate(key, in, out);
+        }
+    }
+
+    private void encryptFile(String sourcePath, CompiledKey key, WritableByteChannel out) throws Exception {
+        try (ReadableByteChannel in = FileHandler.openPath(sourcePath)) {
+            if (in == null) {
+                throw new Exception("File not found: " + sourcePath);
+            }
+            translate(key, in, out);
+        }
+    }
+
+    //both directions are the same table lookup, so they share the stream, mmap and pipeline paths
+    private void translate(CompiledKey key, ReadableByteChannel in, WritableByteChannel out) throws Exception {
+        CipherPipeline stages = pipeline;
+        if (stages != null && CipherStream.canTranslateBytes(key, FileHandler.getCharset())) {
+            stages.run(key, in, out);
+        } else {
+            CipherStream.decipher(key, in, out, FileHandler.getCharset());
+        }
+    }
+
+    static void writeFully(ByteBuffer buffer, WritableByteChannel out) throws Exception {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    //turns a 1-based file number into a file name from the data directory
+    private String resolveFileName(int fileNumber) throws Exception {
+        long start = Metrics.start();
+        String fileName = FileHandler.getFileName(fileNumber);
+        Metrics.record(Metrics.Stage.LIST, start, 0);
+        //no such number: the full listing tells an empty directory from a number out of range
+        return fileName != null ? fileName : resolveFileName(getFileList(), fileNumber);
+    }
+
+    private String resolveFileName(List<String> files, int fileNumber) throws Exception {
         //exception
         if (files.isEmpty()) {
             throw new Exception("No files available in data directory");
@@ -28,17 +615,126 @@ public class ProgramControl {
             throw new Exception("File number " + String.format("%02d", fileNumber) + " not found");
         }
         //get the correct file based on the number
-        String fileName = files.get(fileNumber - 1);
-        // read it -> use file handler
+        return files.get(fileNumber - 1);
+    }
+
+    //the key file for fileName: keyPath if one was given, otherwise the one data/keys.properties
+    //names for the file, or the default key
+    private String keyPathFor(String fileName, String keyPath) throws Exception {
+        return keyPath != null ? keyPath : keyManifest().keyPathFor(fileName, DEFAULT_KEY_PATH);
+    }
+
+    //the key of every file, with each distinct key file loaded once however many files use it
+    private Map<String, CompiledKey> loadKeys(List<String> fileNames, String keyPath) throws Exception {
+        Map<String, CompiledKey> byPath = new HashMap<>();
+        Map<String, CompiledKey> byFile = new HashMap<>();
+        for (String fileName : fileNames) {
+            String path = keyPathFor(fileName, keyPath);
+            CompiledKey key = byPath.get(path);
+            if (key == null) {
+                key = loadKey(path);
+                byPath.put(path, key);
+            }
+            byFile.put(fileName, key);
+        }
+        return byFile;
+    }
+
+    //data/keys.properties, read again only when it changed; empty if there is none
+    private KeyManifest keyManifest() throws Exception {
+        FileStamp stamp = FileHandler.getFileStamp(KeyManifest.FILE_NAME);
+        if (stamp == null) {
+            return KeyManifest.EMPTY;
+        }
+        KeyManifest current = manifest;
+        if (stamp.equals(current.getStamp())) {
+            return current;
+        }
+
+        byte[] bytes = FileHandler.readRange(KeyManifest.FILE_NAME, 0, Integer.MAX_VALUE);
+        if (bytes == null) {
+            return KeyManifest.EMPTY;
+        }
         try {
-            String content = FileHandler.getFile(fileName);
-            //checking -> throw exception if no
-            if (content.equals("File not found!")) {
-                throw new Exception("File not found: " + fileName);
+            current = KeyManifest.read(bytes, stamp);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new Exception("Could not read data/" + KeyManifest.FILE_NAME + ": " + e.getMessage());
+        }
+        manifest = current;
+        return current;
+    }
+
+    //sets keyPath as the key of the files in data/keys.properties, writing it only if that changes it
+    private void recordKeys(List<String> fileNames, String keyPath) throws Exception {
+        KeyManifest current = keyManifest();
+        KeyManifest updated = current.with(fileNames, keyPath, DEFAULT_KEY_PATH);
+        if (!updated.sameEntries(current)) {
+            replaceDataFile(KeyManifest.FILE_NAME, updated::write);
+        }
+    }
+
+    private CompiledKey loadKey(String keyPath) throws Exception {
+        long start = Metrics.start();
+        CompiledKey key = keys.get(keyPath);
+        Metrics.record(Metrics.Stage.KEY_LOAD, start, 0);
+        if (key == null) {
+            throw new Exception("Could not load key file: " + keyPath);
+        }
+        return key;
+    }
+
+    private CompiledKey loadEncryptKey(String keyPath) throws Exception {
+        long start = Metrics.start();
+        CompiledKey key = keys.getEncryptKey(keyPath);
+        Metrics.record(Metrics.Stage.KEY_LOAD, start, 0);
+        if (key == null) {
+            throw new Exception("Could not load key file: " + keyPath);
+        }
+        return key;
+    }
+
+    //passes writes on to out and keeps a copy of them for the cache, dropping the copy once it
+    //is larger than the cache takes (the file may have grown since it was stamped)
+    private static final class CopyingChannel implements WritableByteChannel {
+        private final WritableByteChannel out;
+        private final DecryptCache cache;
+        private ByteArrayOutputStream copy;
+
+        CopyingChannel(WritableByteChannel out, DecryptCache cache, int expectedSize) {
+            this.out = out;
+            this.cache = cache;
+            this.copy = new ByteArrayOutputStream(expectedSize);
+        }
+
+        //what was written, null if it was too large to keep
+        byte[] getCopy() {
+            return copy == null ? null : copy.toByteArray();
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer written = src.duplicate();
+            int count = out.write(src);
+            if (copy != null && count > 0) {
+                if (cache.accepts(copy.size() + (long) count)) {
+                    byte[] bytes = new byte[count];
+                    written.get(bytes);
+                    copy.write(bytes, 0, count);
+                } else {
+                    copy = null;
+                }
             }
-            return content;
-        } catch (FileNotFoundException e) {
-            throw new Exception("File not found: " + fileName);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return out.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
         }
     }
 }
@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Thin client for DecryptServer. It stands in for ProgramControl, so the
+ * UserInterface works the same whether files are deciphered in this JVM or
+ * by a running server.
+ */
+public class RemoteProgramControl extends ProgramControl {
+    private final String baseUrl;
+
+    public RemoteProgramControl(String host, int port) {
+        super(0);
+        this.baseUrl = "http://" + host + ":" + port;
+    }
+
+    @Override
+    public List<String> getFileList() throws Exception {
+        HttpURLConnection connection = open("/files");
+        List<String> files = new ArrayList<>();
+        try (InputStream in = connection.getInputStream()) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            for (String line : body.split("\n")) {
+                //"NN name" -> name
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    files.add(line.substring(space + 1).trim());
+                }
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public String getFileContent(int fileNumber, String keyPath) throws Exception {
+        throw new Exception("Reading ciphertext is not available through the server");
+    }
+
+    @Override
+    public void writeFileContent(int fileNumber, String keyPath, WritableByteChannel out) throws Exception {
+        download(fileNumber, keyPath, "", out);
+    }
+
+    @Override
+    public void writeFileRange(int fileNumber, String keyPath, long offset, long length,
+                               WritableByteChannel out) throws Exception {
+        //a range to the end of the file is sent without a length, which could not fit in 18 digits
+        boolean toEnd = length >= Long.MAX_VALUE - offset;
+        download(fileNumber, keyPath, "&offset=" + offset + (toEnd ? "" : "&length=" + length), out);
+    }
+
+    @Override
+    public void writeFileLines(int fileNumber, String keyPath, long firstLine, long lastLine,
+                               WritableByteChannel out) throws Exception {
+        download(fileNumber, keyPath, "&lines=" + firstLine + "-" + lastLine, out);
+    }
+
+    private void download(int fileNumber, String keyPath, String parameters, WritableByteChannel out) throws Exception {
+        //without a key the server picks each file's own key
+        String key = keyPath == null ? "" : URLEncoder.encode(keyPath, StandardCharsets.UTF_8);
+        HttpURLConnection connection = open("/files/" + String.format("%02d", fileNumber) + "?key=" + key + parameters);
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[CipherStream.BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                writeFully(ByteBuffer.wrap(buffer, 0, read), out);
+            }
+        }
+    }
+
+    @Override
+    public void writeFiles(List<Integer> fileNumbers, String keyPath, WritableByteChannel out) throws Exception {
+        List<String> files = getFileList();
+        for (int i = 0; i < fileNumbers.size(); i++) {
+            int fileNumber = fileNumbers.get(i);
+            if (fileNumber < 1 || fileNumber > files.size()) {
+                throw new Exception("File number " + String.format("%02d", fileNumber) + " not found");
+            }
+            writeFully(batchHeader(i == 0, fileNumber, files.get(fileNumber - 1)), out);
+            writeFileContent(fileNumber, keyPath, out);
+        }
+    }
+
+    //one file after another: the server already deciphers requests from many clients in parallel
+    @Override
+    public void writeFilesTo(List<Integer> fileNumbers, String keyPath, String outputDir) throws Exception {
+        List<String> files = getFileList();
+        for (int fileNumber : fileNumbers) {
+            if (fileNumber < 1 || fileNumber > files.size()) {
+                throw new Exception("File number " + String.format("%02d", fileNumber) + " not found");
+            }
+            String fileName = outputFileName(files.get(fileNumber - 1));
+            try (WritableByteChannel out = FileHandler.createOutputFile(outputDir, fileName)) {
+                writeFileContent(fileNumber, keyPath, out);
+            }
+        }
+    }
+
+    //these would read or rewrite this machine's data/ (using the server's file names), so they are refused
+    @Override
+    public void encryptFile(String sourcePath, String keyPath, WritableByteChannel out) throws Exception {
+        throw notSupported("--encrypt");
+    }
+
+    @Override
+    public void encryptFilesTo(List<String> sourcePaths, String keyPath, String outputDir) throws Exception {
+        throw notSupported("--encrypt");
+    }
+
+    @Override
+    public void rekeyFiles(List<Integer> fileNumbers, String oldKeyPath, String newKeyPath) throws Exception {
+        throw notSupported("--rekey");
+    }
+
+    @Override
+    public List<SearchMatch> search(String query, String keyPath) throws Exception {
+        throw notSupported("--search");
+    }
+
+    @Override
+    public int updateIndex() throws Exception {
+        throw notSupported("--index");
+    }
+
+    @Override
+    public String recoverKey(int fileNumber, String keyPath) throws Exception {
+        throw notSupported("--recover");
+    }
+
+    private static Exception notSupported(String command) {
+        return new Exception(command + " is not supported over --server, run it where the files are");
+    }
+
+    //opens a GET request, turning a server error into an Exception with the server's message
+    private HttpURLConnection open(String path) throws Exception {
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                return connection;
+            }
+        } catch (IOException e) {
+            throw new Exception("Could not reach server at " + baseUrl + ": " + e.getMessage());
+        }
+
+        String message = "Server returned " + connection.getResponseCode();
+        try (InputStream error = connection.getErrorStream()) {
+            if (error != null) {
+                message = new String(error.readAllBytes(), StandardCharsets.UTF_8).trim().replaceFirst("^Error: ", "");
+            }
+        }
+        throw new Exception(message);
+    }
+}
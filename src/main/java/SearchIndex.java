@@ -0,0 +1,370 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A trigram index over the cipher text in data/, kept in data/.topsecret-index.
+ *
+ * Every file is cut into 64 KB blocks, and for each three byte sequence
+ * of cipher text the index lists the blocks it starts in. The index does
+ * not depend on the key: a query is encrypted with whatever key is in use
+ * and only the blocks that contain all of its trigrams are read and
+ * searched. Files keep the postings they had as long as their mtime and
+ * size do not change, so an update only reads the files that did.
+ *
+ * Layout, big endian, read through a memory map:
+ *   int magic, int version, int block size, int file count
+ *   per file: short name length, name (UTF-8), long mtime, long size,
+ *             int first block, int block count
+ *   int trigram count
+ *   per trigram, sorted: int trigram, int postings offset, int postings count
+ *   postings: global block numbers, delta encoded as varints
+ */
+public final class SearchIndex {
+    //name of the index file inside data/, it does not end in .txt so it is never listed as a data file
+    public static final String FILE_NAME = ".topsecret-index";
+    static final int BLOCK_SIZE = 64 * 1024;
+    //a query trigram with more cipher spellings than this (keys that are not one to one) is not looked up
+    static final int MAX_ALTERNATIVES = 64;
+    //longest range handed back by candidateRanges, so it can be read into memory in one go
+    static final int MAX_RANGE_BLOCKS = 16;
+
+    private static final int MAGIC = 0x54534958;
+    private static final int VERSION = 1;
+    private static final int TABLE_ENTRY_SIZE = 12;
+
+    private final ByteBuffer buffer;
+    private final Map<String, FileEntry> files;
+    private final int totalBlocks;
+    private final int trigramCount;
+    private final int tableStart;
+    private final int postingsStart;
+
+    private SearchIndex(ByteBuffer buffer, Map<String, FileEntry> files, int totalBlocks, int trigramCount,
+                        int tableStart) {
+        this.buffer = buffer;
+        this.files = files;
+        this.totalBlocks = totalBlocks;
+        this.trigramCount = trigramCount;
+        this.tableStart = tableStart;
+        this.postingsStart = tableStart + trigramCount * TABLE_ENTRY_SIZE;
+    }
+
+    //maps an index file, null if it is not an index written by this version
+    public static SearchIndex read(FileChannel channel) throws IOException {
+        try {
+            //an index over 2 GB cannot be mapped and is treated like a corrupt one
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != BLOCK_SIZE) {
+                return null;
+            }
+            int fileCount = buffer.getInt();
+            Map<String, FileEntry> files = new HashMap<>();
+            int totalBlocks = 0;
+            for (int i = 0; i < fileCount; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                FileStamp stamp = new FileStamp(buffer.getLong(), buffer.getLong());
+                FileEntry entry = new FileEntry(stamp, buffer.getInt(), buffer.getInt());
+                files.put(new String(name, StandardCharsets.UTF_8), entry);
+                totalBlocks = Math.max(totalBlocks, entry.firstBlock + entry.blockCount);
+            }
+            int trigramCount = buffer.getInt();
+            return new SearchIndex(buffer, files, totalBlocks, trigramCount, buffer.position());
+        } catch (RuntimeException e) {
+            //truncated or corrupt, treated the same as no index
+            return null;
+        }
+    }
+
+    //number of files in the index
+    public int size() {
+        return files.size();
+    }
+
+    //mtime and size of the file when it was indexed, null if it is not in the index
+    public FileStamp getStamp(String fileName) {
+        FileEntry entry = files.get(fileName);
+        return entry == null ? null : entry.stamp;
+    }
+
+    //byte ranges [start, end) of the file where a match of the query could start, as consecutive
+    //longs, each at most MAX_RANGE_BLOCKS blocks long; null if the index cannot narrow the query
+    //down at all. sources[i] are the cipher bytes that decipher to query byte i
+    long[] candidateRanges(String fileName, byte[][] sources, long fileSize) {
+        FileEntry entry = files.get(fileName);
+        BitSet blocks = candidateBlocks(sources);
+        if (blocks == null) {
+            return null;
+        }
+
+        List<Long> ranges = new ArrayList<>();
+        int end = entry.firstBlock + entry.blockCount;
+        int first = blocks.nextSetBit(entry.firstBlock);
+        while (first >= 0 && first < end) {
+            int last = Math.min(Math.min(blocks.nextClearBit(first), end), first + MAX_RANGE_BLOCKS);
+            ranges.add((long) (first - entry.firstBlock) * BLOCK_SIZE);
+            ranges.add(Math.min((long) (last - entry.firstBlock) * BLOCK_SIZE, fileSize));
+            first = blocks.nextSetBit(last);
+        }
+
+        long[] result = new long[ranges.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ranges.get(i);
+        }
+        return result;
+    }
+
+    //global blocks a match could start in, null if the query has no trigram the index can use
+    private BitSet candidateBlocks(byte[][] sources) {
+        BitSet result = null;
+        for (int i = 0; i + 2 < sources.length; i++) {
+            long alternatives = (long) sources[i].length * sources[i + 1].length * sources[i + 2].length;
+            if (alternatives > MAX_ALTERNATIVES) {
+                continue;
+            }
+
+            BitSet blocks = new BitSet(totalBlocks);
+            for (byte a : sources[i]) {
+                for (byte b : sources[i + 1]) {
+                    for (byte c : sources[i + 2]) {
+                        addPostings(trigram(a, b, c), blocks);
+                    }
+                }
+            }
+
+            //a match starting in block n has each of its trigrams starting in block n or n + 1
+            BitSet possible = blocks.get(1, Math.max(totalBlocks, 1));
+            possible.or(blocks);
+            if (result == null) {
+                result = possible;
+            } else {
+                result.and(possible);
+            }
+        }
+        return result;
+    }
+
+    private void addPostings(int trigram, BitSet blocks) {
+        int low = 0;
+        int high = trigramCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = buffer.getInt(tableStart + mid * TABLE_ENTRY_SIZE);
+            if (value < trigram) {
+                low = mid + 1;
+            } else if (value > trigram) {
+                high = mid - 1;
+            } else {
+                decodePostings(mid, blocks, null, null);
+                return;
+            }
+        }
+    }
+
+    //decodes the postings of table entry i, either into blocks or, remapped, into pairs
+    private void decodePostings(int i, BitSet blocks, LongList pairs, int[] remap) {
+        int entry = tableStart + i * TABLE_ENTRY_SIZE;
+        long trigram = buffer.getInt(entry);
+        int position = postingsStart + buffer.getInt(entry + 4);
+        int count = buffer.getInt(entry + 8);
+
+        int block = 0;
+        for (int n = 0; n < count; n++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            block += delta;
+
+            if (blocks != null) {
+                blocks.set(block);
+            } else if (remap[block] >= 0) {
+                pairs.add(trigram << 32 | remap[block]);
+            }
+        }
+    }
+
+    //(trigram << 32 | block) for every trigram starting in each 64 KB block of in, blocks counted from 0
+    public static long[] indexFile(ReadableByteChannel in) throws IOException {
+        LongList pairs = new LongList();
+        BitSet seen = new BitSet(1 << 24);
+        int[] touched = new int[BLOCK_SIZE];
+        //two extra bytes for the trigrams that start at the end of a block
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE + 2);
+        byte[] buf = buffer.array();
+        boolean eof = false;
+
+        for (long block = 0; ; block++) {
+            while (!eof && buffer.hasRemaining()) {
+                eof = in.read(buffer) < 0;
+            }
+            int filled = buffer.position();
+
+            int distinct = 0;
+            for (int i = 0; i < Math.min(BLOCK_SIZE, filled - 2); i++) {
+                int trigram = trigram(buf[i], buf[i + 1], buf[i + 2]);
+                if (!seen.get(trigram)) {
+                    seen.set(trigram);
+                    touched[distinct++] = trigram;
+                }
+            }
+            for (int i = 0; i < distinct; i++) {
+                pairs.add((long) touched[i] << 32 | block);
+                seen.clear(touched[i]);
+            }
+
+            if (filled <= BLOCK_SIZE) {
+                return pairs.toArray();
+            }
+            System.arraycopy(buf, BLOCK_SIZE, buf, 0, filled - BLOCK_SIZE);
+            buffer.position(filled - BLOCK_SIZE);
+            buffer.limit(buffer.capacity());
+        }
+    }
+
+    //writes an index for fileNames; fresh.get(i) is indexFile's output for file i, or null to copy
+    //that file's postings from previous (whose stamp for it must equal stamps.get(i))
+    public static void write(WritableByteChannel out, List<String> fileNames, List<FileStamp> stamps,
+                             List<long[]> fresh, SearchIndex previous) throws IOException {
+        LongList pairs = new LongList();
+        int[] firstBlocks = new int[fileNames.size()];
+        int[] remap = previous == null ? null : new int[previous.totalBlocks];
+        if (remap != null) {
+            Arrays.fill(remap, -1);
+        }
+
+        int nextBlock = 0;
+        for (int i = 0; i < fileNames.size(); i++) {
+            firstBlocks[i] = nextBlock;
+            int blockCount = blockCount(stamps.get(i).getSize());
+            if (fresh.get(i) != null) {
+                for (long pair : fresh.get(i)) {
+                    pairs.add(pair + firstBlocks[i]);
+                }
+            } else {
+                FileEntry old = previous.files.get(fileNames.get(i));
+                for (int b = 0; b < old.blockCount; b++) {
+                    remap[old.firstBlock + b] = firstBlocks[i] + b;
+                }
+            }
+            //one unused block between files, so "n or n + 1" never reaches into the next file
+            nextBlock += blockCount + 1;
+        }
+        if (remap != null) {
+            for (int i = 0; i < previous.trigramCount; i++) {
+                previous.decodePostings(i, null, pairs, remap);
+            }
+        }
+
+        long[] sorted = pairs.toArray();
+        Arrays.parallelSort(sorted);
+
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        DataOutputStream tableOut = new DataOutputStream(table);
+        int trigramCount = 0;
+        for (int start = 0; start < sorted.length; ) {
+            int trigram = (int) (sorted[start] >>> 32);
+            int end = start;
+            int previousBlock = 0;
+            int offset = postings.size();
+            while (end < sorted.length && (int) (sorted[end] >>> 32) == trigram) {
+                int block = (int) sorted[end];
+                writeVarint(postings, block - previousBlock);
+                previousBlock = block;
+                end++;
+            }
+            tableOut.writeInt(trigram);
+            tableOut.writeInt(offset);
+            tableOut.writeInt(end - start);
+            trigramCount++;
+            start = end;
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeInt(VERSION);
+        headerOut.writeInt(BLOCK_SIZE);
+        headerOut.writeInt(fileNames.size());
+        for (int i = 0; i < fileNames.size(); i++) {
+            byte[] name = fileNames.get(i).getBytes(StandardCharsets.UTF_8);
+            headerOut.writeShort(name.length);
+            headerOut.write(name);
+            headerOut.writeLong(stamps.get(i).getModified());
+            headerOut.writeLong(stamps.get(i).getSize());
+            headerOut.writeInt(firstBlocks[i]);
+            headerOut.writeInt(blockCount(stamps.get(i).getSize()));
+        }
+        headerOut.writeInt(trigramCount);
+
+        OutputStream stream = Channels.newOutputStream(out);
+        header.writeTo(stream);
+        table.writeTo(stream);
+        postings.writeTo(stream);
+        stream.flush();
+    }
+
+    static int blockCount(long size) {
+        return (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    private static int trigram(byte a, byte b, byte c) {
+        return (a & 0xFF) << 16 | (b & 0xFF) << 8 | (c & 0xFF);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class FileEntry {
+        final FileStamp stamp;
+        final int firstBlock;
+        final int blockCount;
+
+        FileEntry(FileStamp stamp, int firstBlock, int blockCount) {
+            this.stamp = stamp;
+            this.firstBlock = firstBlock;
+            this.blockCount = blockCount;
+        }
+    }
+
+    //growable long[], the pair lists get too big for a List<Long>
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
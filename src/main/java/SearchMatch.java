@@ -0,0 +1,41 @@
+/*
+ * One place where a search query was found: the file, the byte offset of
+ * the match in the deciphered file and the deciphered line around it. For
+ * keys that are applied byte by byte the offset is the same in the cipher
+ * file.
+ */
+public final class SearchMatch {
+    private final int fileNumber;
+    private final String fileName;
+    private final long offset;
+    private final String snippet;
+
+    public SearchMatch(int fileNumber, String fileName, long offset, String snippet) {
+        this.fileNumber = fileNumber;
+        this.fileName = fileName;
+        this.offset = offset;
+        this.snippet = snippet;
+    }
+
+    public int getFileNumber() {
+        return fileNumber;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    //"NN name:offset: snippet", the format --search prints
+    @Override
+    public String toString() {
+        return String.format("%02d", fileNumber) + " " + fileName + ":" + offset + ": " + snippet;
+    }
+}
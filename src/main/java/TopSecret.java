@@ -4,7 +4,9 @@
 
 public class TopSecret{
     public static void main(String[] args){
-        ProgramControl control = new ProgramControl();
+        //only a server sees the same file twice, a one-shot run streams every file without a cache
+        boolean serving = args.length > 0 && args[0].equals("--serve");
+        ProgramControl control = serving ? new ProgramControl() : new ProgramControl(0);
         UserInterface ui = new UserInterface(control);
         ui.run(args);
     }
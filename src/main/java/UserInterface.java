@@ -1,4 +1,8 @@
 
+import java.io.File;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /*
@@ -9,11 +13,22 @@ import java.util.List;
  * -reading command line arguments
  * -printing the file list
  * -printing a selected file's deciphered contents
+ * -printing or writing out several files in one run (batch mode), optionally gzip-compressed
+ * -encrypting plain text files into the cipher form (--encrypt)
+ * -moving the files in data/ from one key to another (--rekey)
+ * -searching the files in data/ for plain text (--search, --index)
+ * -printing part of a file (--offset/--length, --lines)
+ * -recovering a lost key from a file's cipher text (--recover)
+ * -running as a server, or as a client of one
+ * -printing per-stage timings (--stats)
  * -printing usage + errors for invalid input
  */
 public class UserInterface {
 
-    private static final String DEFAULT_KEY_PATH = "ciphers/key.txt";
+    private static final String DEFAULT_KEY_PATH = ProgramControl.DEFAULT_KEY_PATH;
+    //--rekey OLD_KEY that reads each file with its own key
+    private static final String OWN_KEYS = "-";
+    private static final String KEY_DIRECTORY = "ciphers";
     private final ProgramControl control;
 
     public UserInterface(ProgramControl control) {
@@ -26,29 +41,243 @@ public class UserInterface {
             return;
         }
 
+        List<String> rest = new ArrayList<>(Arrays.asList(args));
+        if (rest.removeIf("--stats"::equals)) {
+            Metrics.reset();
+            Metrics.setEnabled(true);
+            try {
+                dispatch(rest.toArray(new String[0]));
+            } finally {
+                Metrics.setEnabled(false);
+                System.err.print(Metrics.report(control.getCache(), control.getKeyRegistry()));
+            }
+            return;
+        }
+
+        dispatch(args);
+    }
+
+    private void dispatch(String[] args) {
         if(args.length == 1 && isHelp(args[0])) {
             printUsage();
             return;
         }
 
-        if(args.length == 0) {
+        if(args.length >= 1 && args[0].equals("--serve")) {
+            serve(args);
+            return;
+        }
+
+        if(args.length >= 1 && args[0].equals("--server")) {
+            runAsClient(args);
+            return;
+        }
+
+        if(args.length == 1 && args[0].equals("--index")) {
+            updateIndex();
+            return;
+        }
+
+        List<String> positional = new ArrayList<>();
+        String outputDir = null;
+        boolean pipelined = false;
+        boolean gzip = false;
+        boolean encrypt = false;
+        String[] rekey = null;
+        String query = null;
+        String recover = null;
+        //byte or line window of a single file, -1 / null when not given
+        long offset = -1;
+        long length = -1;
+        long[] lines = null;
+        int chunkSize = CipherPipeline.DEFAULT_CHUNK_SIZE;
+        int depth = CipherPipeline.DEFAULT_DEPTH;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--out")) {
+                if (i + 1 >= args.length) {
+                    showError("--out needs a directory");
+                    return;
+                }
+                outputDir = args[++i];
+            } else if (args[i].equals("--pipeline")) {
+                pipelined = true;
+            } else if (args[i].equals("--gzip")) {
+                gzip = true;
+            } else if (args[i].equals("--encrypt")) {
+                encrypt = true;
+            } else if (args[i].equals("--search")) {
+                if (i + 1 >= args.length || args[i + 1].isEmpty()) {
+                    showError("--search needs the text to look for");
+                    return;
+                }
+                query = args[++i];
+            } else if (args[i].equals("--recover")) {
+                if (i + 1 >= args.length || !isTwoDigits(args[i + 1])) {
+                    showError("--recover needs a two-digit file number like 03");
+                    return;
+                }
+                recover = args[++i];
+            } else if (args[i].equals("--rekey")) {
+                if (i + 2 >= args.length) {
+                    showError("--rekey needs the old and the new key");
+                    return;
+                }
+                rekey = new String[] {args[i + 1], args[i + 2]};
+                i += 2;
+            } else if (args[i].equals("--offset") || args[i].equals("--length")) {
+                if (i + 1 >= args.length || !args[i + 1].matches("\\d{1,18}")) {
+                    showError(args[i] + " needs a number of bytes");
+                    return;
+                }
+                if (args[i].equals("--offset")) {
+                    offset = Long.parseLong(args[++i]);
+                } else {
+                    length = Long.parseLong(args[++i]);
+                }
+            } else if (args[i].equals("--lines")) {
+                lines = i + 1 < args.length ? parseLineRange(args[i + 1]) : null;
+                if (lines == null) {
+                    showError("--lines needs a range of line numbers like 100-150");
+                    return;
+                }
+                i++;
+            } else if (args[i].equals("--chunk-size") || args[i].equals("--depth")) {
+                if (i + 1 >= args.length || !isPositiveNumber(args[i + 1])) {
+                    showError(args[i] + " needs a positive number");
+                    return;
+                }
+                pipelined = true;
+                if (args[i].equals("--chunk-size")) {
+                    chunkSize = Integer.parseInt(args[++i]);
+                } else {
+                    depth = Integer.parseInt(args[++i]);
+                }
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        if (pipelined) {
+            control.setPipeline(new CipherPipeline(chunkSize, depth));
+        }
+
+        if (gzip) {
+            if (outputDir == null) {
+                showError("--gzip compresses files written with --out <DIR>");
+                return;
+            }
+            control.setGzipOutput(true);
+        }
+
+        if (encrypt) {
+            encryptFiles(positional, outputDir);
+            return;
+        }
+
+        if (rekey != null) {
+            rekeyFiles(positional, rekey[0].equals(OWN_KEYS) ? null : rekey[0], rekey[1]);
+            return;
+        }
+
+        if (query != null) {
+            search(query, positional);
+            return;
+        }
+
+        if (recover != null) {
+            recoverKey(recover, positional);
+            return;
+        }
+
+        if(positional.isEmpty() && outputDir == null) {
             printNumberedFiles();
             return;
         }
 
-        if(args.length == 1) {
-            displayFile(args[0], DEFAULT_KEY_PATH);
+        if(positional.isEmpty()) {
+            showError("--out needs files to decipher, like --all or 01-05");
+            return;
+        }
+
+        if(positional.size() > 2) {
+            showError("Too many arguments");
+            return;
+        }
+
+        String selection = positional.get(0);
+        //null when no key is given, so each file gets its key from data/keys.properties
+        String keyPath = positional.size() == 2 && !isBlank(positional.get(1)) ? positional.get(1) : null;
+
+        if (offset >= 0 || length >= 0 || lines != null) {
+            if (!isTwoDigits(selection) || outputDir != null || (lines != null && (offset >= 0 || length >= 0))) {
+                showError("--offset/--length or --lines work on one file, like: 03 --lines 100-150");
+                return;
+            }
+            displayRange(selection, keyPath, Math.max(offset, 0), length, lines);
             return;
         }
 
-        if(args.length == 2) {
-            displayFile(args[0], args[1]);
+        if(outputDir == null && isTwoDigits(selection)) {
+            displayFile(selection, keyPath);
             return;
         }
 
-        showError("Too many arguments");
+        displayFiles(selection, keyPath, outputDir);
+    }
+
+
+    //--serve [PORT] [--preload-keys]: keeps running and serves files over HTTP until the process is stopped
+    private void serve(String[] args) {
+        int port = DecryptServer.DEFAULT_PORT;
+        boolean preloadKeys = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--preload-keys")) {
+                preloadKeys = true;
+            } else if (args[i].matches("\\d{1,5}")) {
+                port = Integer.parseInt(args[i]);
+            } else {
+                showError("Invalid server option: " + args[i]);
+                return;
+            }
+        }
+
+        if (preloadKeys) {
+            int loaded = control.preloadKeys(KEY_DIRECTORY);
+            System.out.println("Loaded " + loaded + " key(s) from " + KEY_DIRECTORY);
+        }
+
+        //a server has no end of run to print a report at, so its numbers go to JMX instead
+        Metrics.setEnabled(true);
+        try {
+            Metrics.registerMBeans(control.getCache(), control.getKeyRegistry());
+        } catch (Exception e) {
+            System.err.println("Metrics are not available over JMX: " + e.getMessage());
+        }
+
+        try {
+            DecryptServer server = new DecryptServer(control, port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            System.out.println("Serving on http://127.0.0.1:" + server.getPort() + " (Ctrl+C to stop)");
+        } catch (Exception e) {
+            showError("Could not start server: " + e.getMessage());
+        }
     }
 
+    //--server [HOST:]PORT <command>: runs the rest of the command against a running server
+    private void runAsClient(String[] args) {
+        if (args.length < 2 || !args[1].matches("([^:]+:)?\\d{1,5}")) {
+            showError("--server needs a port like 8750 or localhost:8750");
+            return;
+        }
+        int colon = args[1].lastIndexOf(':');
+        String host = colon < 0 ? "127.0.0.1" : args[1].substring(0, colon);
+        int port = Integer.parseInt(args[1].substring(colon + 1));
+
+        String[] rest = new String[args.length - 2];
+        System.arraycopy(args, 2, rest, 0, rest.length);
+        new UserInterface(new RemoteProgramControl(host, port)).run(rest);
+    }
 
     private void printNumberedFiles() {
         List<String> files;
@@ -75,36 +304,226 @@ public class UserInterface {
             return;
         }
 
-        if (isBlank(keyPath)) {
-            keyPath = DEFAULT_KEY_PATH;
+        int fileNumber = Integer.parseInt(fileCode);
+
+        try {
+            control.writeFileContent(fileNumber, keyPath, Channels.newChannel(System.out));
+        } catch (Exception e) {
+            showError(e.getMessage());
+            if (e.getMessage() != null && e.getMessage().startsWith("Could not load key file")) {
+                System.err.println("If the key is lost, --recover " + fileCode + " can work it out from the file.");
+            }
+        } finally {
+            System.out.flush();
         }
+    }
 
+
+    //part of one file: lines[0]-lines[1] if lines is set, otherwise length bytes from offset (-1 = to the end)
+    private void displayRange(String fileCode, String keyPath, long offset, long length, long[] lines) {
         int fileNumber = Integer.parseInt(fileCode);
+        try {
+            if (lines != null) {
+                control.writeFileLines(fileNumber, keyPath, lines[0], lines[1], Channels.newChannel(System.out));
+            } else {
+                long toEnd = Long.MAX_VALUE - offset;
+                control.writeFileRange(fileNumber, keyPath, offset, length < 0 ? toEnd : length,
+                        Channels.newChannel(System.out));
+            }
+        } catch (Exception e) {
+            showError(e.getMessage());
+        } finally {
+            System.out.flush();
+        }
+    }
 
-        String encrypted;
+    //several files with one key; outputDir == null means stdout with a header per file
+    private void displayFiles(String selection, String keyPath, String outputDir) {
+        List<Integer> fileNumbers;
         try {
-            encrypted = control.getFileContent(fileNumber, keyPath);
+            fileNumbers = selection.equals("--all") ? allFileNumbers() : parseSelection(selection);
         } catch (Exception e) {
             showError(e.getMessage());
             return;
         }
-        String keyContent = FileHandler.readKeyFile(keyPath);
 
-        if (keyContent == null) {
-            showError("Could not load key file: " + keyPath);
+        if (fileNumbers == null) {
+            showError("Invalid file number. Must be two digits like 01, or a list like 01,03,05-09.");
             return;
         }
 
-        boolean ok = CipherDecrypter.loadKey(keyContent);
-        if (!ok) {
-            showError("Could not load key file: " + keyPath);
+        try {
+            if (outputDir == null) {
+                control.writeFiles(fileNumbers, keyPath, Channels.newChannel(System.out));
+            } else {
+                control.writeFilesTo(fileNumbers, keyPath, outputDir);
+            }
+        } catch (Exception e) {
+            showError(e.getMessage());
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    //--encrypt <FILE | DIR> [KEY_PATH] [--out <DIR>]: the plain -> cipher direction, for making data/ files
+    private void encryptFiles(List<String> positional, String outputDir) {
+        if (positional.isEmpty() || positional.size() > 2) {
+            showError("--encrypt needs a plain text file or directory, and optionally a key");
+            return;
+        }
+
+        File source = new File(positional.get(0));
+        String keyPath = positional.size() == 2 ? positional.get(1) : DEFAULT_KEY_PATH;
+        if (!source.exists()) {
+            showError("File not found: " + source.getPath());
+            return;
+        }
+        if (source.isDirectory() && outputDir == null) {
+            showError("--encrypt of a directory needs --out <DIR>, for example --out data");
+            return;
+        }
+
+        try {
+            if (outputDir == null) {
+                control.encryptFile(source.getPath(), keyPath, Channels.newChannel(System.out));
+            } else if (source.isDirectory()) {
+                control.encryptFilesTo(FileHandler.listTextFiles(source.getPath()), keyPath, outputDir);
+            } else {
+                control.encryptFilesTo(List.of(source.getPath()), keyPath, outputDir);
+            }
+        } catch (Exception e) {
+            showError(e.getMessage());
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    //--rekey <OLD_KEY | -> <NEW_KEY> [LIST]: rewrites the files in data/ (all of them by default) for the new key,
+    //a null oldKeyPath reads each file with its own key
+    private void rekeyFiles(List<String> positional, String oldKeyPath, String newKeyPath) {
+        if (positional.size() > 1) {
+            showError("Too many arguments");
+            return;
+        }
+
+        String selection = positional.isEmpty() ? "--all" : positional.get(0);
+        List<Integer> fileNumbers;
+        try {
+            fileNumbers = selection.equals("--all") ? allFileNumbers() : parseSelection(selection);
+        } catch (Exception e) {
+            showError(e.getMessage());
             return;
         }
 
-        String plain = CipherDecrypter.decipher(encrypted);
-        System.out.print(plain);
+        if (fileNumbers == null) {
+            showError("Invalid file number. Must be two digits like 01, or a list like 01,03,05-09.");
+            return;
+        }
+
+        try {
+            control.rekeyFiles(fileNumbers, oldKeyPath, newKeyPath);
+            System.out.println("Re-keyed " + fileNumbers.size() + " file(s) from "
+                    + (oldKeyPath == null ? "their own keys" : oldKeyPath) + " to " + newKeyPath);
+        } catch (Exception e) {
+            showError(e.getMessage());
+        }
     }
 
+    //--search <TEXT> [KEY_PATH]: prints "NN name:offset: line" for every match in data/
+    private void search(String query, List<String> positional) {
+        if (positional.size() > 1) {
+            showError("Too many arguments");
+            return;
+        }
+        String keyPath = positional.isEmpty() ? null : positional.get(0);
+
+        List<SearchMatch> matches;
+        try {
+            matches = control.search(query, keyPath);
+        } catch (Exception e) {
+            showError(e.getMessage());
+            return;
+        }
+
+        if (matches.isEmpty()) {
+            System.out.println("No matches.");
+            return;
+        }
+        for (SearchMatch match : matches) {
+            System.out.println(match);
+        }
+    }
+
+    //--recover <NN> [KEY_PATH]: saves a key worked out from file NN (default ciphers/recovered-NN.txt)
+    private void recoverKey(String fileCode, List<String> positional) {
+        if (positional.size() > 1) {
+            showError("Too many arguments");
+            return;
+        }
+        String keyPath = positional.isEmpty() ? KEY_DIRECTORY + "/recovered-" + fileCode + ".txt" : positional.get(0);
+
+        try {
+            control.recoverKey(Integer.parseInt(fileCode), keyPath);
+        } catch (Exception e) {
+            showError(e.getMessage());
+            return;
+        }
+        System.out.println("Recovered key saved to " + keyPath);
+        System.out.println("Check it with: java topsecret " + fileCode + " " + keyPath + " --lines 1-20");
+    }
+
+    //--index: builds or refreshes the search index in data/
+    private void updateIndex() {
+        try {
+            int read = control.updateIndex();
+            System.out.println("Search index is up to date (" + read + " file(s) read)");
+        } catch (Exception e) {
+            showError(e.getMessage());
+        }
+    }
+
+    private List<Integer> allFileNumbers() throws Exception {
+        List<String> files = control.getFileList();
+        if (files == null || files.isEmpty()) {
+            throw new Exception("No files available in data directory");
+        }
+        List<Integer> fileNumbers = new ArrayList<>();
+        for (int i = 1; i <= files.size(); i++) {
+            fileNumbers.add(i);
+        }
+        return fileNumbers;
+    }
+
+    //parses "01,03,05-09" into file numbers, null if any part is not NN or NN-NN
+    private static List<Integer> parseSelection(String selection) {
+        List<Integer> fileNumbers = new ArrayList<>();
+        for (String part : selection.split(",", -1)) {
+            String[] range = part.split("-", -1);
+            if (range.length > 2 || !isTwoDigits(range[0]) || !isTwoDigits(range[range.length - 1])) {
+                return null;
+            }
+            int first = Integer.parseInt(range[0]);
+            int last = Integer.parseInt(range[range.length - 1]);
+            if (last < first) {
+                return null;
+            }
+            for (int n = first; n <= last; n++) {
+                fileNumbers.add(n);
+            }
+        }
+        return fileNumbers;
+    }
+
+    //"A-B" with 1 <= A <= B as {A, B}, null otherwise
+    private static long[] parseLineRange(String s) {
+        if (s == null || !s.matches("\\d{1,18}-\\d{1,18}")) {
+            return null;
+        }
+        int dash = s.indexOf('-');
+        long first = Long.parseLong(s.substring(0, dash));
+        long last = Long.parseLong(s.substring(dash + 1));
+        return first >= 1 && last >= first ? new long[] {first, last} : null;
+    }
 
     private static boolean isHelp(String s) {
         return s != null && (s.equals("-h") || s.equals("--help"));
@@ -114,6 +533,10 @@ public class UserInterface {
         return s != null && s.matches("\\d{2}");
     }
 
+    private static boolean isPositiveNumber(String s) {
+        return s != null && s.matches("\\d{1,9}") && Integer.parseInt(s) > 0;
+    }
+
     private static boolean isBlank(String s) {
         return s == null || s.trim().isEmpty();
     }
@@ -128,11 +551,48 @@ public class UserInterface {
         System.out.println("  java topsecret");
         System.out.println("  java topsecret <NN>");
         System.out.println("  java topsecret <NN> <KEY_PATH>");
+        System.out.println("  java topsecret <NN,NN,NN-NN | --all> [KEY_PATH] [--out <DIR> [--gzip]]");
+        System.out.println("  java topsecret <NN | LIST> [KEY_PATH] --pipeline [--chunk-size <BYTES>] [--depth <N>]");
+        System.out.println("  java topsecret --encrypt <FILE | DIR> [KEY_PATH] [--out <DIR> [--gzip]]");
+        System.out.println("  java topsecret --rekey <OLD_KEY | -> <NEW_KEY> [NN,NN,NN-NN | --all]");
+        System.out.println("  java topsecret <NN> [KEY_PATH] [--offset <BYTES>] [--length <BYTES>]");
+        System.out.println("  java topsecret <NN> [KEY_PATH] --lines <FIRST>-<LAST>");
+        System.out.println("  java topsecret --search <TEXT> [KEY_PATH]");
+        System.out.println("  java topsecret --index");
+        System.out.println("  java topsecret --recover <NN> [KEY_PATH]");
+        System.out.println("  java topsecret --serve [PORT] [--preload-keys]");
+        System.out.println("  java topsecret --server [HOST:]PORT <any command above>");
+        System.out.println("  java topsecret <any command above> --stats");
         System.out.println("  java topsecret --help");
         System.out.println("  java topsecret -h");
         System.out.println("");
         System.out.println("Notes:");
         System.out.println("  - <NN> must be a two-digit number like 01, 02, 10.");
-        System.out.println("  - Default key path is " + DEFAULT_KEY_PATH + ".");
+        System.out.println("  - Without KEY_PATH each file uses its key from data/" + KeyManifest.FILE_NAME + ",");
+        System.out.println("    or " + DEFAULT_KEY_PATH + " if it is not listed there. A KEY_PATH is used for every file.");
+        System.out.println("  - Several files are printed one after another, each after a ==> NN name <== line.");
+        System.out.println("  - With --out the files are deciphered in parallel into <DIR> instead.");
+        System.out.println("  - Files in data/ may be stored as NAME.txt.gz; they are decompressed as they are read.");
+        System.out.println("    --gzip writes the --out files compressed, as NAME.txt.gz.");
+        System.out.println("  - --pipeline reads, deciphers and writes in overlapping stages (default chunk "
+                + CipherPipeline.DEFAULT_CHUNK_SIZE + " bytes, depth " + CipherPipeline.DEFAULT_DEPTH + ").");
+        System.out.println("  - --encrypt applies the key the other way round (plain -> cipher); a directory");
+        System.out.println("    encrypts every .txt in it in parallel, --out data publishes the results.");
+        System.out.println("  - --rekey rewrites files in data/ in place (all by default) in one pass, replacing");
+        System.out.println("    each file atomically; the plain text is never written out. OLD_KEY - reads");
+        System.out.println("    each file with its own key.");
+        System.out.println("  - --offset/--length and --lines decipher only that part of the file; lines are");
+        System.out.println("    found through the file's line index, which --index saves next to it.");
+        System.out.println("  - --search prints the file, byte offset and line of every match, searching the");
+        System.out.println("    files in parallel without printing them.");
+        System.out.println("  - --index builds data/" + SearchIndex.FILE_NAME + " (or updates it for changed files);");
+        System.out.println("    --search then only reads the parts of files that can contain the text.");
+        System.out.println("  - --recover works out a lost key from file NN alone (letter statistics of English");
+        System.out.println("    text) and saves it, by default as " + KEY_DIRECTORY + "/recovered-NN.txt; the longer the");
+        System.out.println("    file the better the key, so check the result before relying on it.");
+        System.out.println("  - --serve keeps a server running on 127.0.0.1 (default port " + DecryptServer.DEFAULT_PORT + ");");
+        System.out.println("    --server sends the command to it instead of starting a new JVM's worth of work.");
+        System.out.println("  - --stats prints time, bytes and latency per stage plus cache hit rates to stderr;");
+        System.out.println("    a --serve process publishes the same numbers as topsecret:* MBeans.");
     }
 }
@@ -0,0 +1,58 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * SIMD version of the ASCII byte translation, only loaded through
+ * VectorSupport.
+ *
+ * A vector register holds L table entries, so the 128 entry table is
+ * split into 128 / L pieces. For every piece the low bits of each input
+ * byte pick an entry with selectFrom, and the result is blended in where
+ * the high bits say the byte belongs to that piece. Bytes >= 128 match no
+ * piece and keep their value.
+ */
+final class VectorCipher implements VectorSupport.Translator {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int SHIFT = Integer.numberOfTrailingZeros(LANES);
+    private static final int PIECES = 128 / LANES;
+
+    VectorCipher() {
+        //with fewer than 16 lanes there are too many pieces for this to beat the scalar loop
+        if (LANES < 16 || LANES > 128) {
+            throw new IllegalStateException("No suitable vector shape, " + LANES + " byte lanes");
+        }
+    }
+
+    @Override
+    public void translate(byte[] asciiTable, byte[] buf, int from, int to) {
+        ByteVector[] pieces = new ByteVector[PIECES];
+        for (int p = 0; p < PIECES; p++) {
+            pieces[p] = ByteVector.fromArray(SPECIES, asciiTable, p * LANES);
+        }
+
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += LANES) {
+            ByteVector input = ByteVector.fromArray(SPECIES, buf, i);
+            ByteVector low = input.lanewise(VectorOperators.AND, (byte) (LANES - 1));
+            ByteVector high = input.lanewise(VectorOperators.LSHR, SHIFT);
+
+            ByteVector output = input;
+            for (int p = 0; p < PIECES; p++) {
+                VectorMask<Byte> inPiece = high.eq((byte) p);
+                output = output.blend(low.selectFrom(pieces[p]), inPiece);
+            }
+            output.intoArray(buf, i);
+        }
+
+        for (; i < to; i++) {
+            int b = buf[i] & 0xFF;
+            if (b < 128) {
+                buf[i] = asciiTable[b];
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Runtime switch for the SIMD byte translation in VectorCipher.
+ *
+ * jdk.incubator.vector is only there when the JVM is started with
+ * --add-modules jdk.incubator.vector, so VectorCipher is loaded by name
+ * and nothing else refers to it directly. Set -Dtopsecret.vector=false to
+ * force the scalar loop.
+ */
+final class VectorSupport {
+    //below this many bytes setting up the vectors costs more than it saves
+    static final int MIN_LENGTH = 256;
+
+    interface Translator {
+        //translates buf[from, to) with a 128 entry ASCII table, bytes >= 128 are left as they are
+        void translate(byte[] asciiTable, byte[] buf, int from, int to);
+    }
+
+    static final Translator TRANSLATOR = load();
+
+    private VectorSupport() {
+    }
+
+    static boolean isAvailable() {
+        return TRANSLATOR != null;
+    }
+
+    private static Translator load() {
+        if (!Boolean.parseBoolean(System.getProperty("topsecret.vector", "true"))) {
+            return null;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (Translator) Class.forName("VectorCipher").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            //no usable vector shape on this machine, the scalar loop is used instead
+            return null;
+        }
+    }
+}
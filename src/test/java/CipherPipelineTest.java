@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherPipelineTest {
+
+    private static final CompiledKey KEY = CipherDecrypter.compileKey("ABC\nBCD");
+
+    @Test
+    void testRun_KeepsChunksInOrder() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            input.append("BCD ").append(i).append('\n');
+            expected.append("ABC ").append(i).append('\n');
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //small chunks and a shallow queue so the stages really have to wait for each other
+        long written = new CipherPipeline(100, 2).run(KEY,
+                Channels.newChannel(new ByteArrayInputStream(input.toString().getBytes())), Channels.newChannel(out));
+
+        assertEquals(expected.toString(), out.toString());
+        assertEquals(expected.length(), written);
+    }
+
+    @Test
+    void testRun_EmptyInput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = new CipherPipeline(16, 1).run(KEY,
+                Channels.newChannel(new ByteArrayInputStream(new byte[0])), Channels.newChannel(out));
+        assertEquals(0, written);
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void testRun_ReadErrorIsReported() {
+        ReadableByteChannel failing = new ReadableByteChannel() {
+            private int reads = 0;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (++reads > 3) {
+                    throw new IOException("disk went away");
+                }
+                dst.put((byte) 'B');
+                return 1;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        IOException exception = assertThrows(IOException.class, () ->
+                new CipherPipeline(2, 1).run(KEY, failing, Channels.newChannel(new ByteArrayOutputStream())));
+        assertEquals("disk went away", exception.getMessage());
+    }
+
+    @Test
+    void testConstructor_RejectsZeroDepth() {
+        assertThrows(IllegalArgumentException.class, () -> new CipherPipeline(1024, 0));
+    }
+}
@@ -0,0 +1,122 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherSearchTest {
+
+    private static final String KEY = "abcdefghijklmnopqrstuvwxyz\nqwertyuiopasdfghjklzxcvbnm";
+
+    private static List<SearchMatch> search(CompiledKey key, String query, String cipherText) throws Exception {
+        return CipherSearch.search(key, query,
+                Channels.newChannel(new ByteArrayInputStream(cipherText.getBytes(StandardCharsets.UTF_8))),
+                StandardCharsets.UTF_8, 1, "a.txt");
+    }
+
+    private static List<Long> offsets(List<SearchMatch> matches) {
+        List<Long> offsets = new ArrayList<>();
+        for (SearchMatch match : matches) {
+            offsets.add(match.getOffset());
+        }
+        return offsets;
+    }
+
+    @Test
+    void testSearch_FindsEncryptedQuery() throws Exception {
+        CompiledKey encrypt = CipherDecrypter.compileEncryptKey(KEY);
+        String cipherText = CipherDecrypter.decipher(encrypt, "first line\nthe secret word is here\nlast");
+
+        List<SearchMatch> matches = search(CipherDecrypter.compileKey(KEY), "secret", cipherText);
+        assertEquals(1, matches.size());
+        assertEquals(15, matches.get(0).getOffset());
+        assertEquals("the secret word is here", matches.get(0).getSnippet());
+        assertEquals("01 a.txt:15: the secret word is here", matches.get(0).toString());
+    }
+
+    @Test
+    void testSearch_NoMatch() throws Exception {
+        CompiledKey encrypt = CipherDecrypter.compileEncryptKey(KEY);
+        String cipherText = CipherDecrypter.decipher(encrypt, "nothing to see");
+        assertTrue(search(CipherDecrypter.compileKey(KEY), "secret", cipherText).isEmpty());
+    }
+
+    @Test
+    void testSearch_KeyThatIsNotOneToOne() throws Exception {
+        //both a and b are enciphered as x, so the query cannot be encrypted exactly
+        CompiledKey key = CipherDecrypter.compileKey("ab\nxx");
+        assertNull(key.uniqueSource("b".getBytes(StandardCharsets.UTF_8)));
+
+        List<SearchMatch> matches = search(key, "b", "x y x");
+        assertEquals(List.of(0L, 4L), offsets(matches));
+        assertEquals("b y b", matches.get(0).getSnippet());
+    }
+
+    @Test
+    void testSearch_NonAsciiKey() throws Exception {
+        CompiledKey key = CipherDecrypter.compileKey("ab\n\u00e9\u4e2d");
+        List<SearchMatch> matches = search(key, "ab", "\u00e9\u4e2d and \u00e9\u4e2d");
+        assertEquals(2, matches.size());
+        assertEquals("ab and ab", matches.get(0).getSnippet());
+    }
+
+    @Test
+    void testSearch_NonAsciiKeyStreamsFilesLargerThanTheBuffer() throws Exception {
+        CompiledKey key = CipherDecrypter.compileKey("ab\n\u00e9\u4e2d");
+        int count = CipherSearch.BUFFER_SIZE / 2;
+        //5 plain bytes each, offsets are into the deciphered text
+        List<SearchMatch> matches = search(key, "ab", "\u00e9\u4e2d x ".repeat(count));
+
+        assertEquals(count, matches.size());
+        for (int i = 0; i < count; i += 9973) {
+            assertEquals(5L * i, matches.get(i).getOffset());
+        }
+        assertEquals(5L * (count - 1), matches.get(count - 1).getOffset());
+    }
+
+    @Test
+    void testSearch_MatchesAcrossBufferBoundaries() throws Exception {
+        CompiledKey encrypt = CipherDecrypter.compileEncryptKey(KEY);
+        StringBuilder plain = new StringBuilder();
+        List<Long> expected = new ArrayList<>();
+        //one match straddling every buffer boundary, and one every 1000 words in between
+        int words = 0;
+        while (plain.length() < 3 * CipherSearch.BUFFER_SIZE) {
+            int next = (plain.length() / CipherSearch.BUFFER_SIZE + 1) * CipherSearch.BUFFER_SIZE - 3;
+            while (plain.length() < next - 7) {
+                if (++words % 1000 == 0) {
+                    expected.add((long) plain.length());
+                    plain.append("needle\n");
+                } else {
+                    plain.append("hay ");
+                }
+            }
+            while (plain.length() < next) {
+                plain.append(' ');
+            }
+            expected.add((long) plain.length());
+            plain.append("needle ");
+        }
+
+        List<SearchMatch> matches = search(CipherDecrypter.compileKey(KEY), "needle",
+                CipherDecrypter.decipher(encrypt, plain.toString()));
+        assertEquals(expected, offsets(matches));
+        for (SearchMatch match : matches) {
+            assertTrue(match.getSnippet().contains("needle"), match.getSnippet());
+        }
+    }
+
+    @Test
+    void testIndexOf_Horspool() {
+        byte[] haystack = "abcabdabcabcabd".getBytes(StandardCharsets.US_ASCII);
+        byte[] needle = "abcabd".getBytes(StandardCharsets.US_ASCII);
+        int[] shift = CipherSearch.shiftTable(needle);
+        assertEquals(0, CipherSearch.indexOf(haystack, 0, haystack.length, needle, shift));
+        assertEquals(9, CipherSearch.indexOf(haystack, 1, haystack.length, needle, shift));
+        assertEquals(-1, CipherSearch.indexOf(haystack, 1, haystack.length - 1, needle, shift));
+    }
+}
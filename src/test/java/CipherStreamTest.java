@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherStreamTest {
+
+    private static String run(CompiledKey key, String input) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CipherStream.decipher(key,
+                Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))),
+                Channels.newChannel(out), StandardCharsets.UTF_8);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testDecipher_AsciiKeyUsesBytePath() throws Exception {
+        CompiledKey key = CipherDecrypter.compileKey("ABC\nBCD");
+        assertTrue(key.isAscii());
+        assertEquals("A B C! caf\u00e9\r\n", run(key, "B C D! caf\u00e9\r\n"));
+    }
+
+    @Test
+    void testDecipher_NonAsciiKeyUsesCharPath() throws Exception {
+        CompiledKey key = CipherDecrypter.compileKey("ab\n\u00e9\u4e2d");
+        assertFalse(key.isAscii());
+        assertEquals("a-b-c\n", run(key, "\u00e9-\u4e2d-c\n"));
+    }
+
+    @Test
+    void testDecipher_InputLargerThanBuffer() throws Exception {
+        CompiledKey key = CipherDecrypter.compileKey("ab\n\u00e9\u4e2d");
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < CipherStream.BUFFER_SIZE; i++) {
+            input.append("\u4e2d\u00e9x");
+            expected.append("bax");
+        }
+        assertEquals(expected.toString(), run(key, input.toString()));
+    }
+
+    @Test
+    void testDecipheringChannel_SameAsDecipher() throws Exception {
+        CompiledKey key = CipherDecrypter.compileKey("ab\n\u00e9\u4e2d");
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < CipherStream.BUFFER_SIZE; i++) {
+            input.append(i % 7 == 0 ? "\u4e2d\n" : "\u00e9x");
+        }
+        ReadableByteChannel channel = CipherStream.decipheringChannel(key,
+                Channels.newChannel(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8))),
+                StandardCharsets.UTF_8);
+
+        //read in small pieces, so reads end in the middle of multi-byte chars
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        while (channel.read(buffer) != -1) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        assertEquals(run(key, input.toString()), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testDecipher_LatinKeyUsesBytesOnlyForLatin1() {
+        CompiledKey key = CipherDecrypter.compileKey("e\n\u00e9");
+        assertTrue(key.isSingleByte());
+        assertFalse(key.isAscii());
+        assertTrue(CipherStream.canTranslateBytes(key, StandardCharsets.ISO_8859_1));
+        assertFalse(CipherStream.canTranslateBytes(key, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testDecipherMapped_LargeFile(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("large.txt");
+        byte[] content = new byte[(int) CipherStream.MAPPED_THRESHOLD + 123];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ("BCD \n".charAt(i % 5));
+        }
+        Files.write(file, content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel in = FileChannel.open(file)) {
+            long written = CipherStream.decipher(CipherDecrypter.compileKey("ABC\nBCD"), in,
+                    Channels.newChannel(out), StandardCharsets.UTF_8);
+            assertEquals(content.length, written);
+        }
+        byte[] result = out.toByteArray();
+        assertEquals(content.length, result.length);
+        for (int i = 0; i < result.length; i++) {
+            assertEquals("ABC \n".charAt(i % 5), (char) result[i]);
+        }
+    }
+}
@@ -36,4 +36,56 @@ public class CiphersTest {
         String result = CipherDecrypter.decipher("B C D!");
         assertEquals("A B C!", result);
     }
+    @Test // ensures that decipher handles key characters outside the latin-1 range
+    void test07_decipher_NonLatinChars() {
+        CipherDecrypter.loadKey("xy\u00e9\n\u03b1\u4e2d\u00e9");
+        String result = CipherDecrypter.decipher("\u03b1-\u4e2d-\u00e9-\u03b2");
+        assertEquals("x-y-\u00e9-\u03b2", result);
+    }
+    @Test // ensures that compiled keys are independent of each other and of loadKey
+    void test08_compileKey_IndependentKeys() {
+        CompiledKey first = CipherDecrypter.compileKey("ABC\nBCD");
+        CompiledKey second = CipherDecrypter.compileKey("ABC\nXYZ");
+        CipherDecrypter.loadKey("ABC\nCDE");
+        assertEquals("ABC", CipherDecrypter.decipher(first, "BCD"));
+        assertEquals("ABC", CipherDecrypter.decipher(second, "XYZ"));
+        assertEquals("XYZ", CipherDecrypter.decipher(first, "XYZ"));
+    }
+    @Test // ensures that loading a new key replaces the previous one instead of adding to it
+    void test09_loadKey_ReplacesPreviousKey() {
+        CipherDecrypter.loadKey("ABC\nBCD");
+        CipherDecrypter.loadKey("XY\nQR");
+        assertEquals("BCD XY", CipherDecrypter.decipher("BCD QR"));
+    }
+    @Test // ensures that compileKey returns null for invalid key content
+    void test10_compileKey_InvalidContent() {
+        assertNull(CipherDecrypter.compileKey("ABC\nBC"));
+        assertNull(CipherDecrypter.compileKey(""));
+    }
+    @Test // ensures that keys with windows line endings do not map \r
+    void test11_compileKey_WindowsLineEndings() {
+        CompiledKey key = CipherDecrypter.compileKey("ABC\r\nBCD\r\n");
+        assertNotNull(key);
+        assertEquals("ABC\r\n", CipherDecrypter.decipher(key, "BCD\r\n"));
+    }
+    @Test // ensures that the encrypt key is the inverse of the decrypt key
+    void test12_compileEncryptKey_RoundTrip() {
+        String keyContent = "abcdefghijklmnopqrstuvwxyz\nqwertyuiopasdfghjklzxcvbnm";
+        CompiledKey encrypt = CipherDecrypter.compileEncryptKey(keyContent);
+        CompiledKey decrypt = CipherDecrypter.compileKey(keyContent);
+        String encrypted = CipherDecrypter.decipher(encrypt, "hello world!");
+        assertEquals("itssg vgksr!", encrypted);
+        assertEquals("hello world!", CipherDecrypter.decipher(decrypt, encrypted));
+        assertNull(CipherDecrypter.compileEncryptKey("ABC\nBC"));
+    }
+    @Test // ensures that a composed key equals applying the two keys one after the other
+    void test13_andThen_ComposesKeys() {
+        CompiledKey oldDecrypt = CipherDecrypter.compileKey("abc\u03b1\nbca\u03b2");
+        CompiledKey newEncrypt = CipherDecrypter.compileEncryptKey("abc\u03b3\nxyz\u03b4");
+        CompiledKey rekey = oldDecrypt.andThen(newEncrypt);
+        String cipherText = "bca\u03b2\u03b3 d";
+        assertEquals(CipherDecrypter.decipher(newEncrypt, CipherDecrypter.decipher(oldDecrypt, cipherText)),
+                CipherDecrypter.decipher(rekey, cipherText));
+        assertEquals("xyz\u03b1\u03b4 d", CipherDecrypter.decipher(rekey, cipherText));
+    }
 }
@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecryptCacheTest {
+
+    private static final FileStamp KEY = new FileStamp(100, 10);
+
+    @Test
+    void testGet_HitAfterPut() {
+        DecryptCache cache = new DecryptCache(1000);
+        FileStamp file = new FileStamp(5, 3);
+        cache.put("a.txt", "key.txt", file, KEY, new byte[]{1, 2, 3});
+
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("a.txt", "key.txt", file, KEY));
+        assertNull(cache.get("a.txt", "other.txt", file, KEY));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testGet_ChangedFileOrKeyIsMiss() {
+        DecryptCache cache = new DecryptCache(1000);
+        cache.put("a.txt", "key.txt", new FileStamp(5, 3), KEY, new byte[3]);
+
+        assertNull(cache.get("a.txt", "key.txt", new FileStamp(6, 3), KEY));
+        assertEquals(0, cache.size());
+
+        cache.put("a.txt", "key.txt", new FileStamp(5, 3), KEY, new byte[3]);
+        assertNull(cache.get("a.txt", "key.txt", new FileStamp(5, 3), new FileStamp(101, 10)));
+    }
+
+    @Test
+    void testPut_EvictsLeastRecentlyUsed() {
+        DecryptCache cache = new DecryptCache(400);
+        FileStamp file = new FileStamp(1, 100);
+        cache.put("a.txt", "k", file, KEY, new byte[100]);
+        cache.put("b.txt", "k", file, KEY, new byte[100]);
+        cache.put("c.txt", "k", file, KEY, new byte[100]);
+        cache.get("a.txt", "k", file, KEY);
+        cache.put("d.txt", "k", file, KEY, new byte[100]);
+        cache.put("e.txt", "k", file, KEY, new byte[100]);
+
+        assertNotNull(cache.get("a.txt", "k", file, KEY));
+        assertNull(cache.get("b.txt", "k", file, KEY));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(400, cache.getCachedBytes());
+    }
+
+    @Test
+    void testPut_IgnoresOversizedEntries() {
+        DecryptCache cache = new DecryptCache(400);
+        assertFalse(cache.accepts(101));
+        cache.put("a.txt", "k", new FileStamp(1, 101), KEY, new byte[101]);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testAccepts_NothingWhenSizeIsZero() {
+        DecryptCache cache = new DecryptCache(0);
+        assertFalse(cache.accepts(0));
+        assertFalse(cache.accepts(1));
+    }
+}
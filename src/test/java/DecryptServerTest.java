@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecryptServerTest {
+
+    private DecryptServer server;
+    private RemoteProgramControl client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new DecryptServer(new FakeProgramControl(), 0);
+        server.start();
+        client = new RemoteProgramControl("127.0.0.1", server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    void testGetFileList_ThroughServer() throws Exception {
+        assertEquals(Arrays.asList("a.txt", "b.txt"), client.getFileList());
+    }
+
+    @Test
+    void testWriteFileContent_ThroughServer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.writeFileContent(2, "ciphers/other key.txt", Channels.newChannel(out));
+        assertEquals("file 2 with ciphers/other key.txt", out.toString());
+    }
+
+    @Test
+    void testWriteFileContent_NoKeyThroughServer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.writeFileContent(1, null, Channels.newChannel(out));
+        assertEquals("file 1 with null", out.toString());
+    }
+
+    @Test
+    void testWriteFileContent_ServerErrorBecomesException() {
+        Exception exception = assertThrows(Exception.class, () ->
+                client.writeFileContent(9, "ciphers/key.txt", Channels.newChannel(new ByteArrayOutputStream())));
+        assertEquals("File number 09 not found", exception.getMessage());
+    }
+
+    @Test
+    void testWriteFiles_ThroughServerWithHeaders() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.writeFiles(Arrays.asList(1, 2), "k", Channels.newChannel(out));
+        assertEquals("==> 01 a.txt <==\nfile 1 with k\n==> 02 b.txt <==\nfile 2 with k", out.toString());
+    }
+
+    @Test
+    void testWriteFileRange_ThroughServer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.writeFileRange(1, "k", 5, 10, Channels.newChannel(out));
+        assertEquals("range of 1 with k: 5+10", out.toString());
+    }
+
+    @Test
+    void testWriteFileRange_ToTheEndThroughServer() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.writeFileRange(1, "k", 5, Long.MAX_VALUE - 5, Channels.newChannel(out));
+        assertEquals("range of 1 with k: 5+" + (Long.MAX_VALUE - 5), out.toString());
+    }
+
+    private static class FakeProgramControl extends ProgramControl {
+
+        @Override
+        public List<String> getFileList() {
+            return Arrays.asList("a.txt", "b.txt");
+        }
+
+        @Override
+        public void writeFileContent(int fileNumber, String keyPath, WritableByteChannel out) throws Exception {
+            if (fileNumber > 2) {
+                throw new Exception("File number " + String.format("%02d", fileNumber) + " not found");
+            }
+            out.write(ByteBuffer.wrap(("file " + fileNumber + " with " + keyPath).getBytes()));
+        }
+
+        @Override
+        public void writeFileRange(int fileNumber, String keyPath, long offset, long length,
+                                   WritableByteChannel out) throws Exception {
+            out.write(ByteBuffer.wrap(("range of " + fileNumber + " with " + keyPath + ": " + offset + "+" + length)
+                    .getBytes()));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryIndexTest {
+
+    //moves the directory mtime into the past so the index treats its scan as settled
+    private static void settle(Path dir) throws IOException {
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+    }
+
+    @Test
+    void testFiles_SortedAndFiltered(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        Files.writeString(tempDir.resolve("notes.md"), "x");
+        Files.createDirectory(tempDir.resolve("dir.txt"));
+
+        DirectoryIndex index = new DirectoryIndex(tempDir.toFile(), ".txt");
+        assertEquals(Arrays.asList("a.txt", "b.txt"), index.files());
+        assertEquals("b.txt", index.fileName(2));
+        assertNull(index.fileName(3));
+    }
+
+    @Test
+    void testFiles_CachedUntilDirectoryChanges(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        settle(tempDir);
+
+        DirectoryIndex index = new DirectoryIndex(tempDir.toFile(), ".txt");
+        List<String> first = index.files();
+        assertSame(first, index.files());
+
+        Files.writeString(tempDir.resolve("c.txt"), "c");
+        assertEquals(Arrays.asList("a.txt", "c.txt"), index.files());
+    }
+
+    @Test
+    void testFiles_SeveralSuffixes(@TempDir Path tempDir) throws IOException {
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+        Files.writeString(tempDir.resolve("a.txt.gz"), "a");
+        Files.writeString(tempDir.resolve("c.gz"), "c");
+
+        DirectoryIndex index = new DirectoryIndex(tempDir.toFile(), ".txt", ".txt.gz");
+        assertEquals(Arrays.asList("a.txt.gz", "b.txt"), index.files());
+    }
+
+    @Test
+    void testFiles_MissingDirectory(@TempDir Path tempDir) {
+        DirectoryIndex index = new DirectoryIndex(tempDir.resolve("missing").toFile(), ".txt");
+        assertEquals(Collections.emptyList(), index.files());
+    }
+}
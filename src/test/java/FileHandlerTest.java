@@ -1,9 +1,17 @@
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -11,10 +19,16 @@ class FileHandlerTest {
 
     @Test
     void testListFiles_ReturnsNotNull() {
-        ArrayList<String> files = FileHandler.listFiles();
+        List<String> files = FileHandler.listFiles();
         assertNotNull(files, "File list should never be null, even if empty");
     }
 
+    @Test
+    void testGetFileName_OutOfRangeIsNull() {
+        assertNull(FileHandler.getFileName(0));
+        assertNull(FileHandler.getFileName(FileHandler.listFiles().size() + 1));
+    }
+
     @Test
     void testReadKeyFile_ReadsContent(@TempDir Path tempDir) throws IOException {
 
@@ -33,4 +47,51 @@ class FileHandlerTest {
         String content = FileHandler.readKeyFile("non_existent_ghost_file.txt");
         assertNull(content, "Should return null when the file does not exist");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testReadFile_PreservesBytesExactly(@TempDir Path tempDir) throws IOException {
+
+        Path tempFile = tempDir.resolve("crlf.txt");
+        String expectedContent = "line 1\r\nline 2\r\nno newline at end";
+        Files.writeString(tempFile, expectedContent, StandardCharsets.UTF_8);
+
+        assertEquals(expectedContent, FileHandler.readFile(tempFile.toFile(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testReadFile_UsesGivenCharset(@TempDir Path tempDir) throws IOException {
+
+        Path tempFile = tempDir.resolve("latin1.txt");
+        Files.write(tempFile, new byte[]{'c', 'a', 'f', (byte) 0xE9});
+
+        assertEquals("caf\u00e9", FileHandler.readFile(tempFile.toFile(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void testReadFile_DecompressesGzip(@TempDir Path tempDir) throws IOException {
+
+        Path tempFile = tempDir.resolve("packed.txt.gz");
+        try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile))) {
+            out.write("compressed\ncontent".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals("compressed\ncontent", FileHandler.readFile(tempFile.toFile(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testCreateOutputFile_GzipRoundTrip(@TempDir Path tempDir) throws IOException {
+
+        byte[] content = "a line that repeats\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        try (WritableByteChannel out = FileHandler.createOutputFile(tempDir.toString(), "out.txt.gz")) {
+            out.write(ByteBuffer.wrap(content));
+        }
+        assertTrue(Files.size(tempDir.resolve("out.txt.gz")) < content.length / 10);
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (ReadableByteChannel in = FileHandler.openPath(tempDir.resolve("out.txt.gz").toString());
+             InputStream stream = Channels.newInputStream(in)) {
+            stream.transferTo(read);
+        }
+        assertArrayEquals(content, read.toByteArray());
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyManifestTest {
+
+    private static final String DEFAULT = "ciphers/key.txt";
+
+    private static KeyManifest read(String text) throws Exception {
+        return KeyManifest.read(text.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static KeyManifest roundTrip(KeyManifest manifest) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(Channels.newChannel(out));
+        return KeyManifest.read(out.toByteArray(), null);
+    }
+
+    @Test
+    void testKeyPathFor_ListedAndUnlistedFiles() throws Exception {
+        KeyManifest manifest = read("# comment\nreport.txt=ciphers/key2.txt\nnotes.txt = ciphers/other.txt\nempty.txt=\n");
+
+        assertEquals(2, manifest.size());
+        assertEquals("ciphers/key2.txt", manifest.keyPathFor("report.txt", DEFAULT));
+        assertEquals("ciphers/other.txt", manifest.keyPathFor("notes.txt", DEFAULT));
+        assertEquals(DEFAULT, manifest.keyPathFor("empty.txt", DEFAULT));
+        assertEquals(DEFAULT, manifest.keyPathFor("missing.txt", DEFAULT));
+    }
+
+    @Test
+    void testWith_SetsAndClearsEntries() throws Exception {
+        KeyManifest manifest = read("a.txt=ciphers/old.txt\nb.txt=ciphers/old.txt\n");
+
+        KeyManifest updated = manifest.with(List.of("a.txt", "c.txt"), "ciphers/new.txt", DEFAULT);
+        assertEquals("ciphers/new.txt", updated.keyPathFor("a.txt", DEFAULT));
+        assertEquals("ciphers/old.txt", updated.keyPathFor("b.txt", DEFAULT));
+        assertEquals("ciphers/new.txt", updated.keyPathFor("c.txt", DEFAULT));
+        //the manifest it was made from is not changed
+        assertEquals("ciphers/old.txt", manifest.keyPathFor("a.txt", DEFAULT));
+
+        KeyManifest back = updated.with(List.of("a.txt", "c.txt"), DEFAULT, DEFAULT);
+        assertEquals(1, back.size());
+        assertFalse(back.sameEntries(updated));
+        assertTrue(back.sameEntries(read("b.txt=ciphers/old.txt")));
+    }
+
+    @Test
+    void testWrite_ReadsBackFileNamesThatNeedEscaping() throws Exception {
+        KeyManifest manifest = KeyManifest.EMPTY.with(List.of("my report=v2:final.txt", "#1.txt"),
+                "ciphers/key 2.txt", DEFAULT);
+
+        KeyManifest read = roundTrip(manifest);
+        assertTrue(read.sameEntries(manifest));
+        assertEquals("ciphers/key 2.txt", read.keyPathFor("my report=v2:final.txt", DEFAULT));
+        assertEquals("ciphers/key 2.txt", read.keyPathFor("#1.txt", DEFAULT));
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyRegistryTest {
+
+    private static Path writeKey(Path file, String content, long modified) throws IOException {
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return file;
+    }
+
+    @Test
+    void testGet_CachesCompiledKey(@TempDir Path tempDir) throws IOException {
+        String keyPath = writeKey(tempDir.resolve("key.txt"), "ABC\nBCD\n", 1000).toString();
+        KeyRegistry registry = new KeyRegistry();
+
+        CompiledKey first = registry.get(keyPath);
+        assertNotNull(first);
+        assertSame(first, registry.get(keyPath));
+    }
+
+    @Test
+    void testGet_ReloadsChangedFile(@TempDir Path tempDir) throws IOException {
+        Path file = writeKey(tempDir.resolve("key.txt"), "ABC\nBCD\n", 1000);
+        KeyRegistry registry = new KeyRegistry();
+        CompiledKey first = registry.get(file.toString());
+
+        //same content, new mtime: kept
+        writeKey(file, "ABC\nBCD\n", 2000);
+        assertSame(first, registry.get(file.toString()));
+
+        writeKey(file, "ABC\nXYZ\n", 3000);
+        CompiledKey changed = registry.get(file.toString());
+        assertNotSame(first, changed);
+        assertEquals("ABC", CipherDecrypter.decipher(changed, "XYZ"));
+    }
+
+    @Test
+    void testGet_MissingOrInvalidKey(@TempDir Path tempDir) throws IOException {
+        KeyRegistry registry = new KeyRegistry();
+        assertNull(registry.get(tempDir.resolve("missing.txt").toString()));
+        assertNull(registry.get(writeKey(tempDir.resolve("bad.txt"), "ABC\nBC\n", 1000).toString()));
+    }
+
+    @Test
+    void testPreload_LoadsValidKeys(@TempDir Path tempDir) throws IOException {
+        writeKey(tempDir.resolve("a.txt"), "ABC\nBCD\n", 1000);
+        writeKey(tempDir.resolve("b.txt"), "XY\nYX\n", 1000);
+        writeKey(tempDir.resolve("bad.txt"), "XY\n", 1000);
+        KeyRegistry registry = new KeyRegistry();
+
+        assertEquals(2, registry.preload(tempDir.toString()));
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    void testGet_CountsHitsAndMisses(@TempDir Path tempDir) throws IOException {
+        String keyPath = writeKey(tempDir.resolve("key.txt"), "ABC\nBCD\n", 1000).toString();
+        KeyRegistry registry = new KeyRegistry();
+
+        registry.get(keyPath);
+        registry.get(keyPath);
+        registry.get(keyPath);
+        assertEquals(1, registry.getMisses());
+        assertEquals(2, registry.getHits());
+    }
+
+    @Test
+    void testGetEncryptKey_InverseOfGet(@TempDir Path tempDir) throws IOException {
+        String keyPath = writeKey(tempDir.resolve("key.txt"), "ABC\nBCD\n", 1000).toString();
+        KeyRegistry registry = new KeyRegistry();
+
+        CompiledKey encrypt = registry.getEncryptKey(keyPath);
+        assertEquals("BCD", CipherDecrypter.decipher(encrypt, "ABC"));
+        assertEquals("ABC", CipherDecrypter.decipher(registry.get(keyPath), "BCD"));
+        assertEquals(1, registry.getMisses());
+        assertNull(registry.getEncryptKey(tempDir.resolve("missing.txt").toString()));
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeySolverTest {
+
+    private static final String TEXT = String.join(" ",
+            "The old lighthouse keeper had kept the same routine for more than thirty years.",
+            "Every evening he climbed the narrow stairs, cleaned the great lens with a soft cloth,",
+            "and lit the lamp before the sun went down behind the hills on the far side of the bay.",
+            "When the weather turned bad he would stay awake through the night, listening to the wind",
+            "and watching for the lights of fishing boats that were still out on the water.",
+            "People in the village said that he knew the sea better than anyone who had ever lived there,",
+            "and when the young sailors came back from their first long voyage they often walked up the hill",
+            "to tell him what they had seen. He never said much in return, but he listened carefully",
+            "to every story, and sometimes he would write a few lines in a small notebook that he kept",
+            "in the pocket of his coat. Nobody knew what was written in it. After he died the notebook",
+            "was found on the table next to his bed, and his niece, who had come from the city to take care",
+            "of his things, sat down by the window and began to read. It was not a diary, as she had expected,",
+            "but a careful record of the weather, the tides and the boats that had passed the point,",
+            "with a short note about each of the people who had climbed the hill to talk to him.",
+            "She read it twice, and then she went down to the harbour to find the families of the sailors",
+            "whose names were written there, because she thought that they should know what he had said about them.",
+            "Most of them had never heard of the book, and many of them were surprised to learn how much",
+            "attention the quiet old man had paid to their lives over so many years.\n");
+
+    //a random one to one key over KeySolver.ALPHABET, as a key file (plain line, cipher line)
+    private static String randomKey(long seed) {
+        List<Character> cipher = new ArrayList<>();
+        for (char c : KeySolver.ALPHABET.toCharArray()) {
+            cipher.add(c);
+        }
+        Collections.shuffle(cipher, new Random(seed));
+        StringBuilder line = new StringBuilder();
+        for (char c : cipher) {
+            line.append(c);
+        }
+        return KeySolver.ALPHABET + "\n" + line;
+    }
+
+    @Test
+    void testSolve_RecoversMostOfTheText() throws Exception {
+        String cipherText = CipherDecrypter.decipher(CipherDecrypter.compileEncryptKey(randomKey(42)), TEXT);
+
+        String recovered = KeySolver.solve(KeySolver.count(new StringReader(cipherText)), 4, 1);
+        String plain = CipherDecrypter.decipher(CipherDecrypter.compileKey(recovered), cipherText);
+
+        int right = 0;
+        int letters = 0;
+        for (int i = 0; i < TEXT.length(); i++) {
+            if (Character.isLetter(TEXT.charAt(i))) {
+                letters++;
+                if (plain.charAt(i) == TEXT.charAt(i)) {
+                    right++;
+                }
+            }
+        }
+        assertTrue(right >= letters * 0.9, right + " of " + letters + " letters right: " + plain);
+    }
+
+    @Test
+    void testSolve_WritesACompleteKeyFile() throws Exception {
+        String recovered = KeySolver.solve(KeySolver.count(new StringReader("Tqi nbki")), 1, 1);
+        String[] lines = recovered.split("\n");
+
+        assertEquals(2, lines.length);
+        assertEquals(KeySolver.ALPHABET, lines[1]);
+        Set<Character> plain = new HashSet<>();
+        for (char c : lines[0].toCharArray()) {
+            plain.add(c);
+        }
+        assertEquals(KeySolver.SIZE, plain.size());
+        assertNotNull(CipherDecrypter.compileKey(recovered));
+    }
+
+    @Test
+    void testCount_OnlyCountsKeyChars() throws Exception {
+        assertEquals(7, KeySolver.count(new StringReader("ab, c!\n\n d3 -- e4")).getChars());
+        assertEquals(0, KeySolver.count(new StringReader(" .,;\n")).getChars());
+    }
+}
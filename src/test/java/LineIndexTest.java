@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineIndexTest {
+
+    private static byte[] write(LineIndex index) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    @Test
+    void testWriteAndRead_RoundTrip() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= 3 * LineIndex.EVERY + 5; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+        FileStamp stamp = new FileStamp(1234, content.length);
+
+        LineIndex built = LineIndex.build(Channels.newChannel(new ByteArrayInputStream(content)), stamp);
+        byte[] saved = write(built);
+        //header plus one offset for lines 1, 1025, 2049 and 3073
+        assertEquals(40 + 4 * 8, saved.length);
+
+        LineIndex read = LineIndex.read(saved);
+        assertNotNull(read);
+        assertEquals(stamp, read.getStamp());
+        assertEquals(content.length, read.getLength());
+        assertArrayEquals(saved, write(read));
+    }
+
+    @Test
+    void testBuild_LengthIsTheTextReadNotTheStampSize() throws Exception {
+        byte[] content = "one\ntwo\nthree\n".getBytes(StandardCharsets.UTF_8);
+        //a .txt.gz file: the stamp has the compressed size, the index counts the decompressed text
+        LineIndex built = LineIndex.build(Channels.newChannel(new ByteArrayInputStream(content)), new FileStamp(1, 5));
+
+        assertEquals(content.length, built.getLength());
+        assertEquals(content.length, LineIndex.read(write(built)).getLength());
+    }
+
+    @Test
+    void testRead_RejectsOtherBytes() {
+        assertNull(LineIndex.read("not a line index".getBytes(StandardCharsets.UTF_8)));
+        assertNull(LineIndex.read(new byte[0]));
+    }
+
+    @Test
+    void testFileName_IsHidden() {
+        assertEquals(".a.txt.lines", LineIndex.fileName("a.txt"));
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @AfterEach
+    void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    void testDisabled_RecordsNothing() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+        long start = Metrics.start();
+        assertEquals(Metrics.DISABLED, start);
+
+        Metrics.record(Metrics.Stage.DECIPHER, start, 100);
+        assertEquals(0, Metrics.get(Metrics.Stage.DECIPHER).getCount());
+
+        WritableByteChannel out = Channels.newChannel(new ByteArrayOutputStream());
+        assertSame(out, Metrics.timed(out));
+    }
+
+    @Test
+    void testRecord_CountsCallsAndBytes() {
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        for (int i = 0; i < 10; i++) {
+            Metrics.record(Metrics.Stage.DECIPHER, Metrics.start(), 1000);
+        }
+
+        Metrics.StageStats stats = Metrics.get(Metrics.Stage.DECIPHER);
+        assertEquals(10, stats.getCount());
+        assertEquals(10000, stats.getBytes());
+        assertTrue(stats.getP50Micros() <= stats.getP99Micros());
+        assertEquals(0, Metrics.get(Metrics.Stage.READ).getCount());
+    }
+
+    @Test
+    void testTimedChannels_RecordReadAndWrite() throws Exception {
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        byte[] data = "Hello metrics".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+        try (ReadableByteChannel in = Metrics.timed(Channels.newChannel(new ByteArrayInputStream(data)));
+             WritableByteChannel out = Metrics.timed(Channels.newChannel(sink))) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                out.write(buffer);
+                buffer.clear();
+            }
+        }
+
+        assertArrayEquals(data, sink.toByteArray());
+        assertEquals(data.length, Metrics.get(Metrics.Stage.READ).getBytes());
+        assertEquals(data.length, Metrics.get(Metrics.Stage.WRITE).getBytes());
+    }
+
+    @Test
+    void testReport_IncludesStagesAndCaches() {
+        DecryptCache cache = new DecryptCache(1024);
+        KeyRegistry keys = new KeyRegistry();
+
+        String report = Metrics.report(cache, keys);
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            assertTrue(report.contains(stage.name().toLowerCase()), report);
+        }
+        assertTrue(report.contains("decrypt cache"));
+        assertTrue(report.contains("key registry"));
+    }
+}
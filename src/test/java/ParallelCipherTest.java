@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelCipherTest {
+
+    private static final CompiledKey KEY = CipherDecrypter.compileKey("ABC\nBCD");
+
+    @Test
+    void testTranslateChars_MatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelCipher parallel = new ParallelCipher(pool, 0);
+            char[] input = new char[ParallelCipher.MIN_CHUNK * 10 + 7];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = "BCD x".charAt(i % 5);
+            }
+            char[] expected = input.clone();
+            KEY.translate(expected, 0, expected.length);
+
+            parallel.translate(KEY, input, 0, input.length);
+            assertArrayEquals(expected, input);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testTranslateBytes_OnlyTouchesRange() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelCipher parallel = new ParallelCipher(pool, 0);
+            byte[] input = new byte[ParallelCipher.MIN_CHUNK * 6];
+            Arrays.fill(input, (byte) 'B');
+
+            parallel.translate(KEY, input, 10, input.length - 10);
+            assertEquals('B', input[9]);
+            assertEquals('A', input[10]);
+            assertEquals('A', input[input.length - 11]);
+            assertEquals('B', input[input.length - 10]);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testDecipher_LargeStringUsesDefaultEngine() {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < ParallelCipher.PARALLEL_THRESHOLD / 4 + 1; i++) {
+            input.append("BCD!");
+            expected.append("ABC!");
+        }
+        assertEquals(expected.toString(), CipherDecrypter.decipher(KEY, input.toString()));
+    }
+}
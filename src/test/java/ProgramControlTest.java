@@ -261,4 +261,24 @@ class ProgramControlTest {
         });
         assertTrue(exception.getMessage().contains("not found"));
     }
-}
\ No newline at end of file
+
+    //--out data would truncate every file in data/ before it is read
+    @Test
+    void testWriteFilesTo_DataDirectory_ThrowsException() {
+        for (String outputDir : List.of("data", "./data/")) {
+            Exception exception = assertThrows(Exception.class,
+                    () -> programControl.writeFilesTo(List.of(1), "ciphers/key.txt", outputDir));
+            assertTrue(exception.getMessage().contains("cannot be data/"));
+        }
+        mockedFileHandler.verify(() -> FileHandler.createOutputFile(anyString(), anyString()), never());
+    }
+
+    //--encrypt DIR --out DIR would truncate every source before it is encrypted
+    @Test
+    void testEncryptFilesTo_SourceInOutputDirectory_ThrowsException() {
+        Exception exception = assertThrows(Exception.class,
+                () -> programControl.encryptFilesTo(List.of("plain/a.txt", "data/b.txt"), "ciphers/key.txt", "./data/"));
+        assertTrue(exception.getMessage().contains("data/b.txt"));
+        mockedFileHandler.verify(() -> FileHandler.createOutputFile(anyString(), anyString()), never());
+    }
+}
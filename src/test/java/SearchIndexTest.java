@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+
+    private static final CompiledKey IDENTITY = CipherDecrypter.compileKey("a\na");
+
+    private static long[] index(byte[] content) throws Exception {
+        return SearchIndex.indexFile(Channels.newChannel(new ByteArrayInputStream(content)));
+    }
+
+    private static SearchIndex write(Path file, List<String> names, List<FileStamp> stamps, List<long[]> fresh,
+                                     SearchIndex previous) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SearchIndex.write(Channels.newChannel(out), names, stamps, fresh, previous);
+        Files.write(file, out.toByteArray());
+        try (FileChannel channel = FileChannel.open(file)) {
+            return SearchIndex.read(channel);
+        }
+    }
+
+    private static byte[][] sources(String query) {
+        return IDENTITY.sources(query.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //three blocks of filler with "needle" only in the middle one
+    private static byte[] threeBlocks() {
+        byte[] content = new byte[3 * SearchIndex.BLOCK_SIZE];
+        Arrays.fill(content, (byte) 'x');
+        byte[] needle = "needle".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(needle, 0, content, SearchIndex.BLOCK_SIZE + 100, needle.length);
+        return content;
+    }
+
+    @Test
+    void testCandidateRanges_OnlyBlocksWithAllTrigrams(@TempDir Path tempDir) throws Exception {
+        byte[] content = threeBlocks();
+        FileStamp stamp = new FileStamp(1000, content.length);
+        SearchIndex index = write(tempDir.resolve("index"), List.of("a.txt"), List.of(stamp),
+                List.of(index(content)), null);
+
+        assertNotNull(index);
+        assertEquals(stamp, index.getStamp("a.txt"));
+        //the trigrams of "needle" are all in block 1; block 0 could hold a match running into it
+        assertArrayEquals(new long[] {0, 2L * SearchIndex.BLOCK_SIZE},
+                index.candidateRanges("a.txt", sources("needle"), content.length));
+        assertArrayEquals(new long[0], index.candidateRanges("a.txt", sources("haystack"), content.length));
+        //too short to have a trigram
+        assertNull(index.candidateRanges("a.txt", sources("ne"), content.length));
+    }
+
+    @Test
+    void testWrite_ReusesUnchangedFiles(@TempDir Path tempDir) throws Exception {
+        byte[] first = threeBlocks();
+        byte[] second = "a short file with a needle in it".getBytes(StandardCharsets.UTF_8);
+        List<FileStamp> stamps = List.of(new FileStamp(1, first.length), new FileStamp(2, second.length));
+        SearchIndex full = write(tempDir.resolve("full"), List.of("a.txt", "b.txt"), stamps,
+                List.of(index(first), index(second)), null);
+
+        //b.txt is dropped and c.txt added; a.txt is copied over from the old index
+        byte[] third = "nothing here".getBytes(StandardCharsets.UTF_8);
+        List<long[]> fresh = new ArrayList<>(Arrays.asList(null, index(third)));
+        SearchIndex updated = write(tempDir.resolve("updated"), List.of("a.txt", "c.txt"),
+                List.of(stamps.get(0), new FileStamp(3, third.length)), fresh, full);
+
+        assertEquals(2, updated.size());
+        assertNull(updated.getStamp("b.txt"));
+        assertArrayEquals(full.candidateRanges("a.txt", sources("needle"), first.length),
+                updated.candidateRanges("a.txt", sources("needle"), first.length));
+        assertArrayEquals(new long[0], updated.candidateRanges("c.txt", sources("needle"), third.length));
+    }
+
+    @Test
+    void testRead_RejectsOtherFiles(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("index");
+        Files.writeString(file, "not an index at all");
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertNull(SearchIndex.read(channel));
+        }
+    }
+
+    @Test
+    void testRead_TooLargeToMapIsNoIndex(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("index");
+        //sparse, so it takes no disk space
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[1]), Integer.MAX_VALUE);
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertNull(SearchIndex.read(channel));
+        }
+    }
+}
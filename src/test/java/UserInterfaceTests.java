@@ -3,7 +3,14 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 
@@ -36,6 +43,15 @@ public class UserInterfaceTests {
 
         assertTrue(fakeControl.getFileContentCalled);
         assertEquals(1, fakeControl.lastFileNumber);
+        //no key: ProgramControl uses the file's key from data/keys.properties, or the default key
+        assertNull(fakeControl.lastKeyPath);
+    }
+
+    @Test
+    void testExplicitDefaultKeyPathIsPassedOn() {
+        fakeControl.throwOnGetFileContent = true;
+
+        ui.run(new String[]{"01", "ciphers/key.txt"});
         assertEquals("ciphers/key.txt", fakeControl.lastKeyPath);
     }
 
@@ -79,7 +95,154 @@ public class UserInterfaceTests {
         assertTrue(fakeControl.getFileContentCalled);
     }
 
-   
+    @Test
+    void testRangeSelectionCallsWriteFiles() {
+        ui.run(new String[]{"01,03-05", "mykey.txt"});
+        assertEquals(Arrays.asList(1, 3, 4, 5), fakeControl.lastFileNumbers);
+        assertEquals("mykey.txt", fakeControl.lastKeyPath);
+        assertNull(fakeControl.lastOutputDir);
+    }
+
+    @Test
+    void testAllWithOutDirCallsWriteFilesTo() {
+        fakeControl.filesToReturn = Arrays.asList("a.txt", "b.txt");
+
+        ui.run(new String[]{"--all", "--out", "decrypted"});
+        assertEquals(Arrays.asList(1, 2), fakeControl.lastFileNumbers);
+        assertNull(fakeControl.lastKeyPath);
+        assertEquals("decrypted", fakeControl.lastOutputDir);
+    }
+
+    @Test
+    void testInvalidRangeDoesNotCallControl() {
+        ui.run(new String[]{"05-01"});
+        assertNull(fakeControl.lastFileNumbers);
+        assertFalse(fakeControl.getFileContentCalled);
+    }
+
+    @Test
+    void testRekeyDefaultsToAllFiles() {
+        fakeControl.filesToReturn = Arrays.asList("a.txt", "b.txt", "c.txt");
+
+        ui.run(new String[]{"--rekey", "old.txt", "new.txt"});
+        assertEquals(Arrays.asList(1, 2, 3), fakeControl.lastFileNumbers);
+        assertEquals("old.txt", fakeControl.lastKeyPath);
+        assertEquals("new.txt", fakeControl.lastNewKeyPath);
+    }
+
+    @Test
+    void testRekeyFromOwnKeys() {
+        fakeControl.filesToReturn = Arrays.asList("a.txt", "b.txt");
+
+        ui.run(new String[]{"--rekey", "-", "new.txt"});
+        assertNull(fakeControl.lastKeyPath);
+        assertEquals("new.txt", fakeControl.lastNewKeyPath);
+    }
+
+    @Test
+    void testRekeyWithoutNewKeyDoesNotCallControl() {
+        ui.run(new String[]{"--rekey", "old.txt"});
+        assertNull(fakeControl.lastFileNumbers);
+        assertFalse(fakeControl.getFileListCalled);
+    }
+
+    @Test
+    void testLinesCallsWriteFileLines() {
+        ui.run(new String[]{"03", "--lines", "100-150"});
+        assertEquals(3, fakeControl.lastFileNumber);
+        assertNull(fakeControl.lastKeyPath);
+        assertArrayEquals(new long[]{100, 150}, fakeControl.lastRange);
+    }
+
+    @Test
+    void testOffsetAndLengthCallWriteFileRange() {
+        ui.run(new String[]{"02", "mykey.txt", "--offset", "4096", "--length", "512"});
+        assertEquals(2, fakeControl.lastFileNumber);
+        assertEquals("mykey.txt", fakeControl.lastKeyPath);
+        assertArrayEquals(new long[]{4096, 512}, fakeControl.lastRange);
+    }
+
+    @Test
+    void testInvalidLineRangeDoesNotCallControl() {
+        ui.run(new String[]{"03", "--lines", "150-100"});
+        assertNull(fakeControl.lastRange);
+        ui.run(new String[]{"01,02", "--lines", "1-5"});
+        assertNull(fakeControl.lastRange);
+    }
+
+    @Test
+    void testRecoverDefaultsToRecoveredKeyPath() {
+        ui.run(new String[]{"--recover", "04"});
+        assertEquals(4, fakeControl.lastFileNumber);
+        assertEquals("ciphers/recovered-04.txt", fakeControl.lastKeyPath);
+
+        ui.run(new String[]{"--recover", "02", "lost.txt"});
+        assertEquals(2, fakeControl.lastFileNumber);
+        assertEquals("lost.txt", fakeControl.lastKeyPath);
+    }
+
+    @Test
+    void testRecoverWithoutFileNumberDoesNotCallControl() {
+        ui.run(new String[]{"--recover", "4"});
+        assertEquals(-1, fakeControl.lastFileNumber);
+    }
+
+    @Test
+    void testGzipCompressesOutputFiles() {
+        ui.run(new String[]{"01,02", "--out", "plain", "--gzip"});
+        assertTrue(fakeControl.gzipOutput);
+        assertEquals("plain", fakeControl.lastOutputDir);
+    }
+
+    @Test
+    void testGzipWithoutOutDoesNotCallControl() {
+        ui.run(new String[]{"01", "--gzip"});
+        assertFalse(fakeControl.gzipOutput);
+        assertFalse(fakeControl.getFileContentCalled);
+    }
+
+    //runs a command and returns what it printed to stderr
+    private static String errorsOf(UserInterface ui, String... args) {
+        PrintStream original = System.err;
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true));
+        try {
+            ui.run(args);
+        } finally {
+            System.setErr(original);
+        }
+        return err.toString();
+    }
+
+    //nothing listens on port 1: a command that reached the server would fail with "Could not reach server"
+    @Test
+    void testServerRejectsRekeyAndEncrypt(@TempDir Path tempDir) throws Exception {
+        Path plain = Files.writeString(tempDir.resolve("plain.txt"), "abc");
+
+        String rekey = errorsOf(ui, "--server", "1", "--rekey", "ciphers/old.txt", "ciphers/new.txt", "01");
+        assertTrue(rekey.contains("--rekey is not supported over --server"), rekey);
+
+        String encrypt = errorsOf(ui, "--server", "1", "--encrypt", plain.toString());
+        assertTrue(encrypt.contains("--encrypt is not supported over --server"), encrypt);
+
+        String encryptTo = errorsOf(ui, "--server", "1", "--encrypt", plain.toString(),
+                "--out", tempDir.resolve("out").toString());
+        assertTrue(encryptTo.contains("--encrypt is not supported over --server"), encryptTo);
+        assertFalse(Files.exists(tempDir.resolve("out")));
+    }
+
+    @Test
+    void testServerRejectsSearchIndexAndRecover() {
+        String search = errorsOf(ui, "--server", "1", "--search", "secret");
+        assertTrue(search.contains("--search is not supported over --server"), search);
+
+        String index = errorsOf(ui, "--server", "1", "--index");
+        assertTrue(index.contains("--index is not supported over --server"), index);
+
+        String recover = errorsOf(ui, "--server", "1", "--recover", "01", "ciphers/recovered.txt");
+        assertTrue(recover.contains("--recover is not supported over --server"), recover);
+    }
+
     private static class FakeProgramControl extends ProgramControl {
 
         boolean getFileListCalled = false;
@@ -87,6 +250,11 @@ public class UserInterfaceTests {
 
         int lastFileNumber = -1;
         String lastKeyPath = null;
+        List<Integer> lastFileNumbers = null;
+        String lastOutputDir = null;
+        String lastNewKeyPath = null;
+        long[] lastRange = null;
+        boolean gzipOutput = false;
 
         boolean throwOnGetFileContent = false;
         List<String> filesToReturn = Arrays.asList();
@@ -109,5 +277,58 @@ public class UserInterfaceTests {
 
             return "ABC";
         }
+
+        @Override
+        public void writeFileContent(int fileNumber, String keyPath, WritableByteChannel out) throws Exception {
+            String content = getFileContent(fileNumber, keyPath);
+            out.write(ByteBuffer.wrap(content.getBytes()));
+        }
+
+        @Override
+        public void writeFiles(List<Integer> fileNumbers, String keyPath, WritableByteChannel out) {
+            lastFileNumbers = fileNumbers;
+            lastKeyPath = keyPath;
+        }
+
+        @Override
+        public void writeFilesTo(List<Integer> fileNumbers, String keyPath, String outputDir) {
+            lastFileNumbers = fileNumbers;
+            lastKeyPath = keyPath;
+            lastOutputDir = outputDir;
+        }
+
+        @Override
+        public void rekeyFiles(List<Integer> fileNumbers, String oldKeyPath, String newKeyPath) {
+            lastFileNumbers = fileNumbers;
+            lastKeyPath = oldKeyPath;
+            lastNewKeyPath = newKeyPath;
+        }
+
+        @Override
+        public void setGzipOutput(boolean gzipOutput) {
+            this.gzipOutput = gzipOutput;
+        }
+
+        @Override
+        public String recoverKey(int fileNumber, String keyPath) {
+            lastFileNumber = fileNumber;
+            lastKeyPath = keyPath;
+            return "ab\nba\n";
+        }
+
+        @Override
+        public void writeFileRange(int fileNumber, String keyPath, long offset, long length, WritableByteChannel out) {
+            lastFileNumber = fileNumber;
+            lastKeyPath = keyPath;
+            lastRange = new long[]{offset, length};
+        }
+
+        @Override
+        public void writeFileLines(int fileNumber, String keyPath, long firstLine, long lastLine,
+                                   WritableByteChannel out) {
+            lastFileNumber = fileNumber;
+            lastKeyPath = keyPath;
+            lastRange = new long[]{firstLine, lastLine};
+        }
     }
 }
@@ -0,0 +1,36 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VectorCipherTest {
+
+    @Test
+    void testTranslate_MatchesScalarTable() {
+        assumeTrue(VectorSupport.isAvailable(), "needs --add-modules jdk.incubator.vector");
+
+        CompiledKey key = CipherDecrypter.compileKey(
+                "abcdefghijklmnopqrstuvwxyz0123456789\nbcdefghijklmnopqrstuvwxyz0123456789a");
+        assertTrue(key.isAscii());
+
+        byte[] input = new byte[10_000];
+        new Random(7).nextBytes(input);
+        byte[] expected = input.clone();
+        for (int i = 0; i < expected.length; i++) {
+            int b = expected[i] & 0xFF;
+            if (b < 128) {
+                expected[i] = (byte) key.translate((char) b);
+            }
+        }
+
+        //odd bounds so the scalar tail is used on both ends
+        byte[] actual = input.clone();
+        key.translate(actual, 3, actual.length - 5);
+        for (int i = 0; i < actual.length; i++) {
+            byte want = i < 3 || i >= actual.length - 5 ? input[i] : expected[i];
+            assertEquals(want, actual[i], "byte " + i);
+        }
+    }
+}